@@ -21,27 +21,69 @@ package org.thymeleaf.stripes;
 
 import java.util.Map;
 
+import net.sourceforge.stripes.controller.StripesFilter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.thymeleaf.Configuration;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.dialect.IDialect;
+import org.thymeleaf.exceptions.AlreadyInitializedException;
 import org.thymeleaf.exceptions.ConfigurationException;
 import org.thymeleaf.stripes.dialect.StripesStandardDialect;
 import org.thymeleaf.stripes.messageresolver.StripesMessageResolver;
+import org.thymeleaf.stripes.util.UrlBindingRegistry;
 
 public class StripesTemplateEngine extends TemplateEngine {
     
-    private static final StripesStandardDialect STRIPES_STANDARD_DIALECT = new StripesStandardDialect();
+    private static final Logger logger = LoggerFactory.getLogger(StripesTemplateEngine.class);
+
     private static final StripesMessageResolver STRIPES_MESSAGE_RESOLVER = new StripesMessageResolver();
     
+    private boolean warmUp = false;
+    private int warmUpParallelism = Runtime.getRuntime().availableProcessors();
+
     public StripesTemplateEngine() {
         super();
-        // Add the default StripesStandardDialect
+        // Add the default StripesStandardDialect, one per engine as its settings are per engine
         super.clearDialects();
-        super.addDialect(STRIPES_STANDARD_DIALECT);
+        super.addDialect(new StripesStandardDialect());
         // Add the default StripesMessageResolver
         addMessageResolver(STRIPES_MESSAGE_RESOLVER);
     }
 
+
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Sets whether links to every ActionBean (url bindings, binding plans and validation metadata)
+     * are resolved when the engine is initialized instead of on first use. Stripes must be
+     * already initialized by then, so initialize the engine explicitly once StripesFilter is.
+     */
+    public void setWarmUp(final boolean warmUp) {
+        if (isInitialized()) {
+            throw new AlreadyInitializedException("Cannot change link warm up after the template engine has been initialized");
+        }
+        this.warmUp = warmUp;
+    }
+
+    public int getWarmUpParallelism() {
+        return warmUpParallelism;
+    }
+
+    /**
+     * Sets the number of threads used for warming up links, the number of processors by default.
+     */
+    public void setWarmUpParallelism(final int warmUpParallelism) {
+        if (isInitialized()) {
+            throw new AlreadyInitializedException("Cannot change link warm up parallelism after the template engine has been initialized");
+        }
+        this.warmUpParallelism = warmUpParallelism;
+    }
+
+
     @Override
     protected final void initializeSpecific() {
     	// Make sure there's a StripesStandardDialect configured
@@ -51,12 +93,32 @@ public class StripesTemplateEngine extends TemplateEngine {
         for (final IDialect dialect : dialects.values()) {
             if (dialect instanceof StripesStandardDialect) {
             	hasStripesDialect = true;
-                return;
+                break;
             }
         }
         if (!hasStripesDialect) {
         	throw new ConfigurationException("No StripesStandardDialect found. When using StripesTemplateEngine, you should not clear the dialects because there's a StripesStandardDialect added by default.");
         }
+        if (warmUp) {
+        	warmUpLinks();
+        }
+    }
+
+    private void warmUpLinks() {
+        // StripesFilter logs an error and returns null when it isn't initialized
+        final net.sourceforge.stripes.config.Configuration stripesConfig = StripesFilter.getConfiguration();
+        if (stripesConfig == null) {
+            logger.warn("[STRIPES THYMELEAF PLUGIN] Links were not warmed up, no Stripes configuration is available yet");
+            return;
+        }
+        final long start = System.nanoTime();
+        try {
+            final int warmed = UrlBindingRegistry.get(stripesConfig).warmUp(warmUpParallelism);
+            logger.info("[STRIPES THYMELEAF PLUGIN] Warmed up links to {} ActionBeans in {} ms", Integer.valueOf(warmed), Long.valueOf((System.nanoTime() - start) / 1000000L));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("[STRIPES THYMELEAF PLUGIN] Link warm up was interrupted");
+        }
     }
 
 }
\ No newline at end of file
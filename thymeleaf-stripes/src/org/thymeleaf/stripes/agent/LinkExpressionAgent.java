@@ -0,0 +1,95 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.agent;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.thymeleaf.stripes.expression.LinkExpressionPatcher;
+
+/**
+ * <p>
+ *   Java agent that patches <tt>LinkExpression</tt> as it's loaded, under whatever class loader
+ *   loads it, so that it doesn't matter whether LinkExpression was loaded before the dialect was
+ *   created. Start the JVM with <tt>-javaagent:thymeleaf-stripes.jar</tt> (the jar manifest names
+ *   this class as <tt>Premain-Class</tt> and <tt>Agent-Class</tt>). Thymeleaf, thymeleaf-stripes
+ *   and javassist must be visible to the same class loader.
+ * </p>
+ * <p>
+ *   Once installed, it sets the {@link #INSTALLED_PROPERTY} system property, and
+ *   {@link org.thymeleaf.stripes.dialect.StripesStandardDialect} doesn't try to patch LinkExpression
+ *   itself. Without the agent, the dialect only covers link expressions that are a whole attribute
+ *   value, through its expression parser (see {@link org.thymeleaf.stripes.dialect.StripesStandardDialect#LINK_MODE_PROPERTY}).
+ * </p>
+ */
+public final class LinkExpressionAgent implements ClassFileTransformer {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinkExpressionAgent.class);
+
+    /**
+     * System property set to <tt>true</tt> once the agent is installed. A property rather than a field,
+     * as the dialect may be loaded by another class loader than the agent.
+     */
+    public static final String INSTALLED_PROPERTY = "thymeleaf.stripes.linkExpressionAgent";
+
+    private static final String LINK_EXPRESSION_INTERNAL_NAME = LinkExpressionPatcher.LINK_EXPRESSION_CLASS_NAME.replace('.', '/');
+
+    
+    private LinkExpressionAgent() {
+        super();
+    }
+
+    
+    
+    public static void premain(final String agentArgs, final Instrumentation instrumentation) {
+        instrumentation.addTransformer(new LinkExpressionAgent());
+        System.setProperty(INSTALLED_PROPERTY, "true");
+    }
+
+    public static void agentmain(final String agentArgs, final Instrumentation instrumentation) {
+        premain(agentArgs, instrumentation);
+    }
+
+    
+    
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+            final ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+        if (classBeingRedefined != null || !LINK_EXPRESSION_INTERNAL_NAME.equals(className)) {
+            return null;
+        }
+        try {
+            final byte[] patched = LinkExpressionPatcher.patch(loader, classfileBuffer);
+            if (patched == null) {
+                logger.debug("LinkExpression class was already modified.");
+            } else {
+                logger.debug("Successful modification to the LinkExpression class.");
+            }
+            return patched;
+        } catch (final Exception e) {
+            logger.warn("Thymeleaf Stripes agent was unable to modify the LinkExpression class, ActionBean classes " +
+                    "in link expressions nested in other expressions won't be resolved. Exception raised was {} : {}", e.getClass().getName(), e.getMessage());
+            return null;
+        }
+    }
+
+}
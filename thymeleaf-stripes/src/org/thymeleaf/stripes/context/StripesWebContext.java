@@ -19,6 +19,9 @@
  */
 package org.thymeleaf.stripes.context;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -27,30 +30,38 @@ import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import net.sourceforge.stripes.action.ActionBean;
 import net.sourceforge.stripes.controller.StripesFilter;
-import net.sourceforge.stripes.util.ReflectUtil;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.thymeleaf.context.IWebContext;
 import org.thymeleaf.context.WebContext;
+import org.thymeleaf.stripes.expression.StripesLinks;
+import org.thymeleaf.stripes.util.LinkTemplate;
+import org.thymeleaf.stripes.util.UrlBindingRegistry;
 import org.thymeleaf.stripes.util.UrlBuilder;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-
 public class StripesWebContext extends WebContext implements IWebContext {
 	
-	private static final Logger logger = LoggerFactory.getLogger(StripesWebContext.class);
-	
-	private static final Cache<String,String> cache = CacheBuilder.newBuilder().maximumSize(100).build();
-
 	private final net.sourceforge.stripes.config.Configuration stripesConfig;
+	private final UrlBindingRegistry registry;
+	// Resolved once, links ask for them on every evaluation
+	private final String contextPath;
+	private final boolean encodeUrls;
+	// Rendering a template is single threaded, so one builder is reused for every link
+	private UrlBuilder urlBuilder = null;
+	// Link templates created for this request, by class name and event
+	private Map<String,LinkTemplate> linkTemplates = null;
+	// Links already built for this request, by locale and evaluated base, fragment and parameters
+	private Map<Object,String> memoizedLinks = null;
+	private static final int MAX_MEMOIZED_LINKS = 512;
+	// The #stripesLinks expression object, created on first use
+	private StripesLinks stripesLinks = null;
 
     public StripesWebContext(final HttpServletRequest request, final HttpServletResponse response, final ServletContext servletContext, final Locale locale) {
     	super(request, response, servletContext, locale);
     	this.stripesConfig = StripesFilter.getConfiguration();
+    	this.registry = UrlBindingRegistry.get(this.stripesConfig);
+    	this.contextPath = request.getContextPath();
+    	this.encodeUrls = (response != null && !registry.isCookieOnlySessions());
     }
 
     
@@ -64,46 +75,135 @@ public class StripesWebContext extends WebContext implements IWebContext {
     	String baseUrl = resolveActionBeanUrlBinding(className);
     	if (baseUrl == null) return null;
     	// If found, build the final url
-    	UrlBuilder builder = new UrlBuilder(stripesConfig, getLocale(), baseUrl);
+    	UrlBuilder builder = urlBuilder;
+    	if (builder == null) builder = urlBuilder = new UrlBuilder(registry, getLocale(), baseUrl);
+    	else builder.reset(getLocale(), baseUrl);
     	builder.addParameters(parameters);
     	builder.setAnchor(anchor);
     	String url = builder.build();
     	// Prepend the context path
-        String contextPath = getHttpServletRequest().getContextPath();
         if (!url.startsWith("/")) url = "/" + url;
         if (contextPath.length() > 1) url = contextPath + url;
         // Done
         return url;
     }
 
-    public String resolveActionBeanUrlBinding(String className) throws ClassCastException {
-    	// Get binding from cache instead of resolving
-    	String binding = cache.getIfPresent(className);
-    	if (binding != null) return binding;
-    	// Not on cache, try to resolve bean class for name
-    	// It may be null, if it's not an actionbean
-    	Class<ActionBean> beanType = resolveActionBeanClass(className);
-    	if (beanType == null) return null;
-    	// Resolve url binding and cache it
-    	binding = stripesConfig.getActionResolver().getUrlBinding(beanType);
-    	cache.put(className, binding);
-    	return binding;
+    /**
+     * Returns a reusable template for links to an ActionBean and event, so that many links
+     * differing only in their parameters share the binding resolution and the context path.
+     * Templates are cached for the life of this context.
+     * 
+     * @param event the event to link to, may be null
+     * @return the template, or null if className doesn't name a class
+     * @throws ClassCastException, if classname was found by the classloader but it wasn't an ActionBean
+     */
+    public LinkTemplate getLinkTemplate(String className, String event) throws ClassCastException {
+    	final String key = (event == null ? className : className + '#' + event);
+    	if (linkTemplates == null) linkTemplates = new HashMap<String,LinkTemplate>(4);
+    	LinkTemplate template = linkTemplates.get(key);
+    	if (template == null) {
+    		String baseUrl = resolveActionBeanUrlBinding(className);
+    		if (baseUrl == null) return null;
+    		template = new LinkTemplate(registry, getLocale(), baseUrl, event, contextPath);
+    		linkTemplates.put(key, template);
+    	}
+    	return template;
+    }
+
+    /**
+     * Resolves, in order, the urls to an ActionBean and event for every parameter set given.
+     * Urls are complete, including the context path and the session id if needed.
+     * 
+     * @param event the event to link to, may be null
+     * @return the urls, or null if className doesn't name a class
+     * @throws ClassCastException, if classname was found by the classloader but it wasn't an ActionBean
+     */
+    public List<String> resolveActionBeanUrls(String className, String event, Iterable<? extends Map<String,?>> parameterSets) throws ClassCastException {
+    	LinkTemplate template = getLinkTemplate(className, event);
+    	if (template == null) return null;
+    	List<String> urls = new ArrayList<String>();
+    	for (Map<String,?> parameters : parameterSets) {
+    		urls.add(encodeUrl(template.render(parameters)));
+    	}
+    	return urls;
+    }
+
+    /**
+     * @return the context path of the request, resolved once
+     */
+    public String getContextPath() {
+    	return contextPath;
+    }
+
+    /**
+     * Encodes a url with the response (to include the session id if needed), unless sessions
+     * are tracked with cookies only. See {@link UrlBindingRegistry#COOKIE_ONLY_SESSIONS}.
+     */
+    public String encodeUrl(String url) {
+    	return (encodeUrls ? getHttpServletResponse().encodeURL(url) : url);
     }
-    @SuppressWarnings("unchecked")
-	private Class<ActionBean> resolveActionBeanClass(String className) throws ClassCastException {
-    	Class<?> actionBean = null;
-    	try {
-    		actionBean = ReflectUtil.findClass(className);
-        	// Non ActionBean classes ARE an error
-        	if (!ActionBean.class.isAssignableFrom(actionBean) || actionBean.isInterface()) {
-        		logger.debug("Resolved class for name '{}' but it's not a concrete ActionBean. There's no way to guess the corresponding url.", className);
-        		throw new ClassCastException("Cannot cast " + actionBean.getName() + " to " + ActionBean.class.getName());
-        	}
-    	} catch(ClassNotFoundException cnfe) {
-    		// Looked like a class, but wasn't
-    		logger.debug("Tried to resolve class for name '{}' but couldn't find it with the current classloader.", className);
+
+    /**
+     * Returns the key memoizing a link in this request, built from the context's current locale and
+     * the link's evaluated base, fragment and parameters. Only links whose parameter values have a value-based equals (strings, primitive
+     * wrappers) get one, other values may be mutable or format differently while being equal.
+     * 
+     * @return the key, or null if the link can't be memoized
+     */
+    public Object getLinkKey(String linkBase, String urlFragment, Map<String,List<Object>> parameters) {
+    	for (List<Object> values : parameters.values()) {
+    		for (Object value : values) {
+    			if (value != null && !(value instanceof String || value instanceof Boolean || value instanceof Character ||
+    					value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte ||
+    					value instanceof Double || value instanceof Float)) {
+    				return null;
+    			}
+    		}
     	}
-    	return (Class<ActionBean>) actionBean;
+    	return Arrays.<Object>asList(getLocale(), linkBase, urlFragment, parameters);
+    }
+
+    /**
+     * @return the complete url (response encoded) already built in this request for a link key, or null
+     * (also if the key is null)
+     */
+    public String getMemoizedLink(Object linkKey) {
+    	return (memoizedLinks == null || linkKey == null ? null : memoizedLinks.get(linkKey));
+    }
+
+    /**
+     * Remembers the complete url (response encoded) built for a link key, for the rest of the request.
+     * Keys must be immutable and have value semantics, see {@link #getLinkKey(String, String, Map)}.
+     * A null key is ignored.
+     * 
+     * @return the url
+     */
+    public String memoizeLink(Object linkKey, String url) {
+    	if (linkKey == null) return url;
+    	if (memoizedLinks == null) memoizedLinks = new HashMap<Object,String>(32);
+    	if (memoizedLinks.size() < MAX_MEMOIZED_LINKS) memoizedLinks.put(linkKey, url);
+    	return url;
+    }
+
+    /**
+     * @return the {@link StripesLinks} of this context, available as <tt>#stripesLinks</tt> in expressions
+     */
+    public StripesLinks getStripesLinks() {
+    	if (stripesLinks == null) stripesLinks = new StripesLinks(this);
+    	return stripesLinks;
+    }
+
+    public String resolveActionBeanUrlBinding(String className) throws ClassCastException {
+    	// Resolution and caching are delegated to the application's registry
+    	return registry.getUrlBinding(className);
+    }
+
+    public net.sourceforge.stripes.config.Configuration getStripesConfiguration() {
+    	return stripesConfig;
+    }
+
+    public UrlBindingRegistry getUrlBindingRegistry() {
+    	return registry;
     }
 
 }
\ No newline at end of file
@@ -23,12 +23,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
-
-import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.CtMethod;
-import javassist.CtNewMethod;
-import javassist.LoaderClassPath;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,10 +33,14 @@ import org.thymeleaf.doctype.resolution.ClassLoaderDocTypeResolutionEntry;
 import org.thymeleaf.doctype.resolution.IDocTypeResolutionEntry;
 import org.thymeleaf.doctype.translation.DocTypeTranslation;
 import org.thymeleaf.doctype.translation.IDocTypeTranslation;
+import org.thymeleaf.exceptions.AlreadyInitializedException;
 import org.thymeleaf.processor.IProcessor;
 import org.thymeleaf.standard.StandardDialect;
-import org.thymeleaf.stripes.expression.StripesLinkExpression;
+import org.thymeleaf.stripes.agent.LinkExpressionAgent;
+import org.thymeleaf.stripes.expression.LinkExpressionPatcher;
 import org.thymeleaf.stripes.expression.StripesOgnlVariableExpressionEvaluator;
+import org.thymeleaf.stripes.expression.StripesStandardExpressionParser;
+import org.thymeleaf.stripes.metrics.IUseActionBeanMetricsSink;
 import org.thymeleaf.stripes.processor.element.StripesUseActionBeanElementProcessor;
 import org.thymeleaf.util.ClassLoaderUtils;
 
@@ -49,7 +48,29 @@ public class StripesStandardDialect extends StandardDialect {
 
     private static final Logger logger = LoggerFactory.getLogger(StripesStandardDialect.class);
 
+    /**
+     * <p>System property selecting how link expressions are made Stripes-aware. By default
+     * (<tt>parser</tt>), LinkExpression is left untouched and the dialect's expression parser wraps
+     * link expressions that are a whole attribute value: links in assignations (<tt>th:attr</tt>,
+     * <tt>th:with</tt>), link parameters and conditional or nested expressions are then left to
+     * Thymeleaf. Start the JVM with the {@link org.thymeleaf.stripes.agent.LinkExpressionAgent} to
+     * have every link expression resolve ActionBean classes.</p>
+     * 
+     * <p><tt>patch</tt> modifies LinkExpression bytecode with javassist when the dialect is first
+     * created instead, which only works if nothing loaded the class before. It's ignored when the
+     * agent is installed.</p>
+     */
+    public static final String LINK_MODE_PROPERTY = "thymeleaf.stripes.linkMode";
+    public static final String PARSER_LINK_MODE = "parser";
+    public static final String PATCH_LINK_MODE = "patch";
+
     private static boolean linkExpressionFixApplied = false;
+    private static boolean linkExpressionFixFailed = false;
+
+    private Executor useActionBeanExecutor = null;
+    private IUseActionBeanMetricsSink useActionBeanMetricsSink = null;
+    // Processors are created when the template engine is initialized, and keep these settings
+    private volatile boolean processorsCreated = false;
     
     public static final DocTypeIdentifier XHTML1_STRICT_THYMELEAFSPRING3_1_SYSTEMID = 
         DocTypeIdentifier.forValue("http://www.thymeleaf.org/dtd/xhtml1-strict-thymeleaf-spring3-1.dtd");
@@ -375,10 +396,26 @@ public class StripesStandardDialect extends StandardDialect {
     
     public StripesStandardDialect() {
         super();
-        // LinkExpression bytecode modification
-        if (!linkExpressionFixApplied) {
-        	applyLinkExpressionFix();
-        	linkExpressionFixApplied = true;
+        final ClassLoader classLoader = ClassLoaderUtils.getClassLoader(StripesStandardDialect.class);
+        if (Boolean.getBoolean(LinkExpressionAgent.INSTALLED_PROPERTY)) {
+            // The agent patches LinkExpression as it's loaded, unless it was loaded before the agent
+            if (!isLinkExpressionPatched(classLoader)) {
+                setExpressionParser(new StripesStandardExpressionParser());
+            }
+        } else if (PATCH_LINK_MODE.equals(System.getProperty(LINK_MODE_PROPERTY))) {
+            // LinkExpression bytecode modification, asked for explicitly
+            synchronized (StripesStandardDialect.class) {
+                if (!linkExpressionFixApplied) {
+                    linkExpressionFixFailed = !applyLinkExpressionFix(classLoader);
+                    linkExpressionFixApplied = true;
+                }
+            }
+            if (linkExpressionFixFailed) {
+                // At least links that are a whole attribute value will be right
+                setExpressionParser(new StripesStandardExpressionParser());
+            }
+        } else {
+            setExpressionParser(new StripesStandardExpressionParser());
         }
         // Joda specific expression evaluator
         setVariableExpressionEvaluator(new StripesOgnlVariableExpressionEvaluator());
@@ -389,6 +426,37 @@ public class StripesStandardDialect extends StandardDialect {
 
     
     
+    public Executor getUseActionBeanExecutor() {
+        return useActionBeanExecutor;
+    }
+
+    /**
+     * Sets the executor running <tt>use-action-bean</tt> elements marked <tt>async="true"</tt>.
+     * By default they run on virtual threads where available, or on a cached thread pool.
+     * It can't be changed once a template engine has been initialized with this dialect.
+     */
+    public void setUseActionBeanExecutor(final Executor useActionBeanExecutor) {
+        checkProcessorsNotCreated("use-action-bean executor");
+        this.useActionBeanExecutor = useActionBeanExecutor;
+    }
+
+    public IUseActionBeanMetricsSink getUseActionBeanMetricsSink() {
+        return useActionBeanMetricsSink;
+    }
+
+    /**
+     * Sets the sink receiving how long each lifecycle stage of each <tt>use-action-bean</tt> took
+     * (e.g. {@link org.thymeleaf.stripes.metrics.JmxUseActionBeanMetricsSink}). Nothing is timed
+     * by default. It can't be changed once a template engine has been initialized with this dialect.
+     */
+    public void setUseActionBeanMetricsSink(final IUseActionBeanMetricsSink useActionBeanMetricsSink) {
+        checkProcessorsNotCreated("use-action-bean metrics sink");
+        this.useActionBeanMetricsSink = useActionBeanMetricsSink;
+    }
+
+
+    
+    
     @Override
     public Set<IDocTypeTranslation> getDocTypeTranslations() {
         final Set<IDocTypeTranslation> docTypeTranslations = new LinkedHashSet<IDocTypeTranslation>(8, 1.0f);
@@ -438,7 +506,8 @@ public class StripesStandardDialect extends StandardDialect {
         }
         
         // Add Stripes' custom processors
-        processors.add(new StripesUseActionBeanElementProcessor());
+        processorsCreated = true;
+        processors.add(new StripesUseActionBeanElementProcessor(useActionBeanExecutor, useActionBeanMetricsSink));
         
         return new LinkedHashSet<IProcessor>(processors);
     }
@@ -450,45 +519,34 @@ public class StripesStandardDialect extends StandardDialect {
      * Utility methods
      */
     
-    private static void applyLinkExpressionFix() {
+    private void checkProcessorsNotCreated(final String setting) {
+        if (processorsCreated) {
+            throw new AlreadyInitializedException("Cannot change the " + setting + " after a template engine has been initialized with the dialect");
+        }
+    }
+
+    private static boolean isLinkExpressionPatched(final ClassLoader classLoader) {
+        try {
+            Class.forName(LinkExpressionPatcher.LINK_EXPRESSION_CLASS_NAME, false, classLoader).getDeclaredField(LinkExpressionPatcher.PATCHED_MARKER_FIELD);
+            return true;
+        } catch (final Exception e) {
+            return false;
+        }
+    }
+
+    private static boolean applyLinkExpressionFix(final ClassLoader classLoader) {
         try {
         	logger.debug("Trying to modify the LinkExpression class.");
-            final ClassLoader classLoader = ClassLoaderUtils.getClassLoader(StripesStandardDialect.class);
-            final ClassPool pool = new ClassPool(true);
-            pool.insertClassPath(new LoaderClassPath(classLoader));
-
-            // We must load by class name here instead of "LinkExpression.class.getName()" because
-            // the latter would cause the class to be loaded and therefore it would not be
-            // possible to modify it.
-            final CtClass linkClass = pool.get("org.thymeleaf.standard.expression.LinkExpression");
-            final CtClass fixClass = pool.get(StripesLinkExpression.class.getName());
-            
-            // Add a helper method for Stripes links
-            final CtClass[] stripesHelperMethodParams = new CtClass[] { pool.get(String.class.getName()) };
-            final CtMethod stripesHelperMethod = fixClass.getDeclaredMethod("linkLooksLikeStripesClass", stripesHelperMethodParams);
-            linkClass.addMethod(CtNewMethod.copy(stripesHelperMethod, linkClass, null));
-            
-            // Swap the original executeLink method to inject Stripes related behaviour
-            final CtClass[] originalMethodParams = new CtClass[] { 
-            		pool.get("org.thymeleaf.Configuration"), 
-            		pool.get("org.thymeleaf.context.IProcessingContext"), 
-            		linkClass, 
-            		pool.get("org.thymeleaf.standard.expression.StandardExpressionExecutionContext") 
-            };
-            final CtMethod originalMethod = linkClass.getDeclaredMethod("executeLink", originalMethodParams);
-            final CtMethod fixMethod = fixClass.getDeclaredMethod("executeLink", originalMethodParams);
-            originalMethod.setBody(fixMethod, null);
-            
-            // Pushes the class to the class loader, effectively making it
-            // load the modified version instead of the original one. 
-            linkClass.toClass(classLoader, null);
+            LinkExpressionPatcher.patchAndDefine(classLoader);
             logger.debug("Successful modification to the LinkExpression class.");
+            return true;
         } catch (final Exception e) {
             // Currently, an exception in this process only logs a warn and lets it continue
         	// This would render invalid action urls, no more harm, no less
             logger.warn("Thymeleaf Stripes Dialect was unable to modify the LinkExpression class at runtime, making " +
-            		"all action urls in templates incorrect. Probably, LinkExpression class was already loaded or many " +
-            		"instances of StripesStandardDialect have been created. Exception raised was {} : {}", e.getClass().getName(), e.getMessage());
+            		"action urls nested in other expressions incorrect. Probably, LinkExpression class was already loaded, " +
+            		"start the JVM with the LinkExpressionAgent instead. Exception raised was {} : {}", e.getClass().getName(), e.getMessage());
+            return false;
         }
     }
 
@@ -0,0 +1,81 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.expression;
+
+import java.util.Map;
+
+import ognl.MethodAccessor;
+import ognl.MethodFailedException;
+import ognl.OgnlContext;
+import ognl.OgnlException;
+import ognl.OgnlRuntime;
+import ognl.PropertyAccessor;
+import ognl.enhance.UnsupportedCompilationException;
+
+import org.thymeleaf.stripes.processor.element.LazyActionBean;
+
+/**
+ * OGNL accessor that reads properties and calls methods of a {@link LazyActionBean} on the
+ * ActionBean it defers, running its lifecycle on first access.
+ */
+final class LazyActionBeanAccessor implements PropertyAccessor, MethodAccessor {
+
+    LazyActionBeanAccessor() {
+        super();
+    }
+
+    
+    
+    @SuppressWarnings("rawtypes")
+    public Object getProperty(final Map context, final Object target, final Object name) throws OgnlException {
+        return OgnlRuntime.getProperty((OgnlContext) context, ((LazyActionBean) target).get(), name);
+    }
+
+    @SuppressWarnings("rawtypes")
+    public void setProperty(final Map context, final Object target, final Object name, final Object value) throws OgnlException {
+        OgnlRuntime.setProperty((OgnlContext) context, ((LazyActionBean) target).get(), name, value);
+    }
+
+    @SuppressWarnings("rawtypes")
+    public Object callMethod(final Map context, final Object target, final String methodName, final Object[] args) throws MethodFailedException {
+        final Object actionBean = ((LazyActionBean) target).get();
+        try {
+            return OgnlRuntime.callMethod((OgnlContext) context, actionBean, methodName, args);
+        } catch (final MethodFailedException e) {
+            throw e;
+        } catch (final OgnlException e) {
+            throw new MethodFailedException(actionBean, methodName, e);
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    public Object callStaticMethod(final Map context, final Class targetClass, final String methodName, final Object[] args) throws MethodFailedException {
+        throw new MethodFailedException(targetClass, methodName, new UnsupportedOperationException("Static methods are not available on lazy ActionBeans"));
+    }
+
+    public String getSourceAccessor(final OgnlContext context, final Object target, final Object index) {
+        throw new UnsupportedCompilationException("Lazy ActionBeans can't be compiled");
+    }
+
+    public String getSourceSetter(final OgnlContext context, final Object target, final Object index) {
+        throw new UnsupportedCompilationException("Lazy ActionBeans can't be compiled");
+    }
+
+}
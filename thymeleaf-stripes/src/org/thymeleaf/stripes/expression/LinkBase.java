@@ -0,0 +1,147 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.expression;
+
+import org.thymeleaf.standard.expression.IStandardExpression;
+import org.thymeleaf.standard.expression.LinkExpression;
+import org.thymeleaf.standard.expression.TextLiteralExpression;
+import org.thymeleaf.standard.expression.Token;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * <p>
+ *   Precomputed description of a link base: its kind, whether it may name an ActionBean class,
+ *   the URL fragment split from it and whether it already has a query string.
+ * </p>
+ * <p>
+ *   Literal bases are described once per parsed {@link LinkExpression} (held weakly, by identity).
+ *   Dynamic bases are only classified, with {@link #classify(String)} and
+ *   {@link #looksLikeStripesClass(String)}, which don't allocate.
+ * </p>
+ * <p>
+ *   Methods here are public because they're called from the <tt>LinkExpression</tt> code
+ *   injected by {@link StripesLinkExpression}.
+ * </p>
+ */
+public final class LinkBase {
+
+	public enum Kind { CONTEXT_RELATIVE, SERVER_RELATIVE, ABSOLUTE, PAGE_RELATIVE }
+
+	private static final Cache<LinkExpression,LinkBase> literalBases = CacheBuilder.newBuilder().weakKeys().build();
+
+	private final String base;
+	private final String fragment;
+	private final Kind kind;
+	private final boolean stripesClass;
+	private final boolean questionMark;
+
+
+	private LinkBase(final String base, final String fragment) {
+		super();
+		this.base = base;
+		this.fragment = fragment;
+		this.kind = classify(base);
+		this.stripesClass = looksLikeStripesClass(base);
+		this.questionMark = base.indexOf('?') != -1;
+	}
+
+
+
+	/**
+	 * @return the description of the expression's base if it's a literal and has been described
+	 * before, null otherwise
+	 */
+	public static LinkBase forExpression(final LinkExpression expression) {
+		return literalBases.getIfPresent(expression);
+	}
+
+	/**
+	 * Describes the already evaluated base of an expression and caches the description, if the
+	 * expression's base is a literal (and so always evaluates the same).
+	 * 
+	 * @return the description, or null if the base isn't a literal
+	 */
+	public static LinkBase describeLiteral(final LinkExpression expression, final String linkBase) {
+		if (!isLiteral(expression.getBase())) return null;
+		// If hash position == 0 we will not consider it as marking an URL fragment
+		final int hashPosition = linkBase.indexOf('#');
+		final LinkBase description = (hashPosition > 0 ?
+				new LinkBase(linkBase.substring(0, hashPosition), linkBase.substring(hashPosition)) :
+				new LinkBase(linkBase, ""));
+		literalBases.put(expression, description);
+		return description;
+	}
+
+	public static boolean isLiteral(final IStandardExpression expression) {
+		return (expression instanceof TextLiteralExpression || expression instanceof Token);
+	}
+
+
+
+	public static Kind classify(final String linkBase) {
+		if (linkBase.startsWith("/") && !linkBase.startsWith("//")) return Kind.CONTEXT_RELATIVE;
+		if (linkBase.startsWith("~/")) return Kind.SERVER_RELATIVE;
+		if (linkBase.contains("://") ||
+				linkBase.regionMatches(true, 0, "mailto:", 0, 7) || // Email URLs
+				linkBase.startsWith("//")) { // protocol-relative URLs
+			return Kind.ABSOLUTE;
+		}
+		return Kind.PAGE_RELATIVE;
+	}
+
+	public static boolean looksLikeStripesClass(final String linkBase) {
+		for (int i = 0; i < linkBase.length(); i++) {
+			final char c = linkBase.charAt(i);
+			if (c == '/' || c == ':' || c == '?') return false;
+		}
+		return (!linkBase.endsWith(".html") && !linkBase.endsWith(".jsp"));
+	}
+
+
+
+	/**
+	 * @return the link base without its URL fragment
+	 */
+	public String getBase() {
+		return base;
+	}
+
+	/**
+	 * @return the URL fragment including the '#' sign, or an empty string
+	 */
+	public String getFragment() {
+		return fragment;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public boolean looksLikeStripesClass() {
+		return stripesClass;
+	}
+
+	public boolean hasQuestionMark() {
+		return questionMark;
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.expression;
+
+import java.io.ByteArrayInputStream;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtField;
+import javassist.CtMethod;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+
+/**
+ * <p>
+ *   Rewrites <tt>LinkExpression.executeLink</tt> with the body of
+ *   {@link StripesLinkExpression}'s, so every link expression (even those nested in other
+ *   expressions or assignations) resolves ActionBean classes.
+ * </p>
+ * <p>
+ *   It's used by the {@link org.thymeleaf.stripes.agent.LinkExpressionAgent} while the class is
+ *   being loaded, and by the dialect's opt-in <tt>patch</tt> link mode. Javassist is only needed by
+ *   this class.
+ * </p>
+ */
+public final class LinkExpressionPatcher {
+
+    public static final String LINK_EXPRESSION_CLASS_NAME = "org.thymeleaf.standard.expression.LinkExpression";
+
+    /**
+     * Static field added to the patched class, so it can be told apart from the original one
+     */
+    public static final String PATCHED_MARKER_FIELD = "STRIPES_LINKS";
+
+    
+    private LinkExpressionPatcher() {
+        super();
+    }
+
+    
+    
+    /**
+     * Patches the bytecode of LinkExpression.
+     * 
+     * @param loader the class loader LinkExpression is being loaded by
+     * @param classfileBuffer the original bytecode, or null to read it from the loader
+     * @return the patched bytecode, or null if it was already patched
+     */
+    public static byte[] patch(final ClassLoader loader, final byte[] classfileBuffer) throws Exception {
+        final CtClass linkClass = patchedClass(loader, classfileBuffer);
+        if (linkClass == null) return null;
+        try {
+            return linkClass.toBytecode();
+        } finally {
+            linkClass.detach();
+        }
+    }
+
+    /**
+     * Patches LinkExpression and defines it in a class loader. It fails if the loader
+     * already loaded the class.
+     */
+    public static void patchAndDefine(final ClassLoader loader) throws Exception {
+        final CtClass linkClass = patchedClass(loader, null);
+        if (linkClass == null) throw new IllegalStateException("LinkExpression bytecode was already modified");
+        try {
+            // Pushes the class to the class loader, effectively making it
+            // load the modified version instead of the original one. 
+            linkClass.toClass(loader, null);
+        } finally {
+            linkClass.detach();
+        }
+    }
+
+    private static CtClass patchedClass(final ClassLoader loader, final byte[] classfileBuffer) throws Exception {
+        final ClassPool pool = new ClassPool(true);
+        pool.insertClassPath(new LoaderClassPath(LinkExpressionPatcher.class.getClassLoader()));
+        if (loader != null) {
+            pool.insertClassPath(new LoaderClassPath(loader));
+        }
+
+        // We must load by class name here instead of "LinkExpression.class.getName()" because
+        // the latter would cause the class to be loaded and therefore it would not be
+        // possible to modify it.
+        final CtClass linkClass = (classfileBuffer != null ?
+                pool.makeClass(new ByteArrayInputStream(classfileBuffer)) :
+                pool.get(LINK_EXPRESSION_CLASS_NAME));
+        if (isPatched(linkClass)) {
+            linkClass.detach();
+            return null;
+        }
+        final CtClass fixClass = pool.get(StripesLinkExpression.class.getName());
+
+        // Swap the original executeLink method to inject Stripes related behaviour
+        final CtClass[] originalMethodParams = new CtClass[] { 
+                pool.get("org.thymeleaf.Configuration"), 
+                pool.get("org.thymeleaf.context.IProcessingContext"), 
+                linkClass, 
+                pool.get("org.thymeleaf.standard.expression.StandardExpressionExecutionContext") 
+        };
+        final CtMethod originalMethod = linkClass.getDeclaredMethod("executeLink", originalMethodParams);
+        final CtMethod fixMethod = fixClass.getDeclaredMethod("executeLink", originalMethodParams);
+        originalMethod.setBody(fixMethod, null);
+        linkClass.addField(CtField.make("public static final boolean " + PATCHED_MARKER_FIELD + " = true;", linkClass));
+        return linkClass;
+    }
+
+    private static boolean isPatched(final CtClass linkClass) {
+        try {
+            linkClass.getDeclaredField(PATCHED_MARKER_FIELD);
+            return true;
+        } catch (final NotFoundException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.expression;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.thymeleaf.standard.expression.Assignation;
+import org.thymeleaf.standard.expression.LinkExpression;
+import org.thymeleaf.stripes.util.UrlBindingRegistry;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * <p>
+ *   Rendered urls of link expressions made only of literals, like
+ *   <tt>@{com.acme.HomeAction}</tt> or <tt>@{/css/site.css(v=2)}</tt>. Those always render
+ *   the same url for a given context path and locale, so it's built once and reused (before
+ *   <tt>encodeURL</tt>, which still runs on every link unless sessions are cookie-only).
+ * </p>
+ * <p>
+ *   ActionBean urls depend on the application's bindings, so there's one cache per Stripes
+ *   configuration, kept by its {@link UrlBindingRegistry}. Parsed expressions are cached and
+ *   shared by Thymeleaf, so entries are keyed by expression identity and held weakly, going away
+ *   with the expression.
+ * </p>
+ * <p>
+ *   Methods here are public because they're called from the <tt>LinkExpression</tt> code
+ *   injected by {@link StripesLinkExpression}.
+ * </p>
+ */
+public final class StaticLinkCache {
+
+	// Marks expressions with non-literal parts, which are never cached
+	private static final Entry DYNAMIC = new Entry(false);
+
+	private final Cache<LinkExpression,Entry> entries = CacheBuilder.newBuilder().weakKeys().build();
+
+
+	public StaticLinkCache() {
+		super();
+	}
+
+
+
+	/**
+	 * @return the url rendered before for this expression, context path and locale, or null if the
+	 * expression isn't static or hasn't been rendered yet
+	 */
+	public String get(final LinkExpression expression, final String contextPath, final Locale locale) {
+		final Entry entry = entries.getIfPresent(expression);
+		if (entry == null || !entry.isStatic) return null;
+		final ConcurrentHashMap<Locale,String> urls = entry.urlsByContextPath.get(contextPath);
+		return (urls == null ? null : urls.get(locale));
+	}
+
+	/**
+	 * Remembers a rendered url, if the expression is static.
+	 */
+	public void put(final LinkExpression expression, final String contextPath, final Locale locale, final String url) {
+		if (url == null || contextPath == null || locale == null) return;
+		Entry entry = entries.getIfPresent(expression);
+		if (entry == null) {
+			entry = (isStatic(expression) ? new Entry(true) : DYNAMIC);
+			entries.put(expression, entry);
+		}
+		if (!entry.isStatic) return;
+		ConcurrentHashMap<Locale,String> urls = entry.urlsByContextPath.get(contextPath);
+		if (urls == null) {
+			entry.urlsByContextPath.putIfAbsent(contextPath, new ConcurrentHashMap<Locale,String>(4, 0.75f, 1));
+			urls = entry.urlsByContextPath.get(contextPath);
+		}
+		urls.putIfAbsent(locale, url);
+	}
+
+	/**
+	 * A link is static when its base and all of its parameter names and values are literals.
+	 */
+	static boolean isStatic(final LinkExpression expression) {
+		if (!LinkBase.isLiteral(expression.getBase())) return false;
+		if (!expression.hasParameters()) return true;
+		for (final Assignation assignation : expression.getParameters()) {
+			if (!LinkBase.isLiteral(assignation.getLeft())) return false;
+			// A missing value (parameter without "=") is static too
+			if (assignation.getRight() != null && !LinkBase.isLiteral(assignation.getRight())) return false;
+		}
+		return true;
+	}
+
+
+
+	private static final class Entry {
+
+		final boolean isStatic;
+		final ConcurrentHashMap<String,ConcurrentHashMap<Locale,String>> urlsByContextPath;
+
+		Entry(final boolean isStatic) {
+			this.isStatic = isStatic;
+			this.urlsByContextPath = (isStatic ? new ConcurrentHashMap<String,ConcurrentHashMap<Locale,String>>(2, 0.75f, 1) : null);
+		}
+
+	}
+
+}
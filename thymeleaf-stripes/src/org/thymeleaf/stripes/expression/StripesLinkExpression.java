@@ -19,23 +19,18 @@
  */
 package org.thymeleaf.stripes.expression;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.thymeleaf.Configuration;
 import org.thymeleaf.TemplateEngine;
 import org.thymeleaf.context.IProcessingContext;
-import org.thymeleaf.context.IWebContext;
 import org.thymeleaf.exceptions.TemplateProcessingException;
 import org.thymeleaf.standard.expression.Assignation;
 import org.thymeleaf.standard.expression.AssignationSequence;
@@ -45,8 +40,14 @@ import org.thymeleaf.standard.expression.LiteralValue;
 import org.thymeleaf.standard.expression.SimpleExpression;
 import org.thymeleaf.standard.expression.StandardExpressionExecutionContext;
 import org.thymeleaf.stripes.context.StripesWebContext;
+import org.thymeleaf.stripes.util.UrlEncoder;
 import org.thymeleaf.util.StringUtils;
 
+/**
+ * Stripes-aware execution of link expressions. It's used either wrapping a parsed
+ * {@link LinkExpression} (see {@link StripesStandardExpressionParser}), or as the source of the
+ * body patched into <tt>LinkExpression.executeLink</tt> (see {@link LinkExpressionPatcher}).
+ */
 public final class StripesLinkExpression extends SimpleExpression {
     
 	private static final long serialVersionUID = 1L;
@@ -55,6 +56,18 @@ public final class StripesLinkExpression extends SimpleExpression {
 
     private static final String URL_PARAM_NO_VALUE = "%%%__NO_VALUE__%%%";
 
+    private final LinkExpression expression;
+
+    
+    public StripesLinkExpression(final LinkExpression expression) {
+        super();
+        this.expression = expression;
+    }
+
+    public LinkExpression getLinkExpression() {
+        return expression;
+    }
+
 
 
 	static Object executeLink(final Configuration configuration, final IProcessingContext processingContext, final LinkExpression expression, final StandardExpressionExecutionContext expContext) {
@@ -64,47 +77,84 @@ public final class StripesLinkExpression extends SimpleExpression {
         if (!(processingContext.getContext() instanceof StripesWebContext)) {
         	throw new TemplateProcessingException("Stripes link resolver needs a " + StripesWebContext.class.getName() + " object (context is of class: " + processingContext.getContext().getClass().getName() + ")");
         }
+        final StripesWebContext sctx = (StripesWebContext) processingContext.getContext();
+        final String contextPath = sctx.getContextPath();
+        final Locale locale = sctx.getLocale();
+        final StaticLinkCache staticLinks = sctx.getUrlBindingRegistry().getStaticLinkCache();
 
-        final IStandardExpression baseExpression = expression.getBase();
-        Object base = baseExpression.execute(configuration, processingContext, expContext);
+        /*
+         * Links made only of literals are rendered once per context path and locale
+         */
+        final String staticUrl = staticLinks.get(expression, contextPath, locale);
+        if (staticUrl != null) {
+            return sctx.encodeUrl(staticUrl);
+        }
 
-        base = LiteralValue.unwrap(base);
-        if (base != null && !(base instanceof String)) {
-            base = base.toString();
+        /*
+         * Literal link bases are described (fragment, kind...) once per parsed expression,
+         * only dynamic ones need to be evaluated and classified on every execution.
+         */
+        LinkBase linkDescription = LinkBase.forExpression(expression);
+        String linkBase = null;
+        String urlFragment = "";
+        if (linkDescription == null) {
+            final IStandardExpression baseExpression = expression.getBase();
+            Object base = baseExpression.execute(configuration, processingContext, expContext);
+
+            base = LiteralValue.unwrap(base);
+            if (base != null && !(base instanceof String)) {
+                base = base.toString();
+            }
+            if (base == null || StringUtils.isEmptyOrWhitespace((String) base)) {
+                base = "";
+            }
+            linkBase = (String) base;
+            linkDescription = LinkBase.describeLiteral(expression, linkBase);
         }
-        if (base == null || StringUtils.isEmptyOrWhitespace((String) base)) {
-            base = "";
+
+        if (linkDescription != null) {
+            linkBase = linkDescription.getBase();
+            urlFragment = linkDescription.getFragment();
+        } else {
+            /*
+             * Detect URL fragments (selectors after '#') so that they can be output at the end of the URL, after parameters.
+             */
+            final int hashPosition = linkBase.indexOf('#');
+            // If hash position == 0 we will not consider it as marking an
+            // URL fragment.
+            if (hashPosition > 0) {
+                // URL fragment String will include the # sign
+                urlFragment = linkBase.substring(hashPosition);
+                linkBase = linkBase.substring(0, hashPosition);
+            }
         }
 
-        String linkBase = (String) base;
-        
         @SuppressWarnings("unchecked")
         final Map<String,List<Object>> parameters =
             (expression.hasParameters()?
                     resolveParameters(configuration, processingContext, expression, expContext) :
                     (Map<String,List<Object>>) Collections.EMPTY_MAP);
-        
+
         /*
-         * Detect URL fragments (selectors after '#') so that they can be output at the end of the URL, after parameters.
+         * The same link may appear many times in a page, it's built only once per request (when
+         * its parameters allow it). This body is copied into LinkExpression by the patcher, so
+         * helpers must live in other (public) classes.
          */
-        final int hashPosition = linkBase.indexOf('#');
-        String urlFragment = "";
-        // If hash position == 0 we will not consider it as marking an
-        // URL fragment.
-        if (hashPosition > 0) {
-            // URL fragment String will include the # sign
-            urlFragment = linkBase.substring(hashPosition);
-            linkBase = linkBase.substring(0, hashPosition);
+        final Object linkKey = sctx.getLinkKey(linkBase, urlFragment, parameters);
+        final String memoizedUrl = sctx.getMemoizedLink(linkKey);
+        if (memoizedUrl != null) {
+            return memoizedUrl;
         }
         
         /*
          * At this point, we have all the info we need in case it's a Stripes-class link
          */
-        if (linkLooksLikeStripesClass(linkBase)) {
+        final boolean stripesCandidate = (linkDescription != null?
+                linkDescription.looksLikeStripesClass() : LinkBase.looksLikeStripesClass(linkBase));
+        if (stripesCandidate) {
         	if (logger.isDebugEnabled()) {
                 logger.debug("[STRIPES THYMELEAF PLUGIN][{}] Evaluating a Stripes link candidate: \"{}\"", TemplateEngine.threadIndex(), expression.getStringRepresentation());
             }
-        	final StripesWebContext sctx = (StripesWebContext) processingContext.getContext();
         	String url = null;
         	try {
         		// We need to traslate ActionBean class to a url
@@ -116,13 +166,17 @@ public final class StripesLinkExpression extends SimpleExpression {
         	}
         	// Url may be null if linkBase looked like a class but couldn't be found
         	// If not null, resolved url is already complete
-        	if (url != null) return sctx.getHttpServletResponse().encodeURL(url);
+        	if (url != null) {
+        		staticLinks.put(expression, contextPath, locale, url);
+        		return sctx.memoizeLink(linkKey, sctx.encodeUrl(url));
+        	}
         }
         
         /*
          * Check for the existence of a question mark symbol in the link base itself
          */
-        final int questionMarkPosition = linkBase.indexOf('?');
+        final boolean hasQuestionMark = (linkDescription != null?
+                linkDescription.hasQuestionMark() : linkBase.indexOf('?') != -1);
         
         final StringBuilder parametersBuilder = new StringBuilder();
         
@@ -133,7 +187,7 @@ public final class StripesLinkExpression extends SimpleExpression {
             for (final Object parameterObjectValue : parameterValues) {
                 // Insert a separator with the previous parameter, if needed
                 if (parametersBuilder.length() == 0) {
-                    if (questionMarkPosition == -1) {
+                    if (!hasQuestionMark) {
                         parametersBuilder.append("?");
                     } else {
                         parametersBuilder.append("&");
@@ -148,11 +202,8 @@ public final class StripesLinkExpression extends SimpleExpression {
                     // This is a parameter without a value and even without an "=" symbol
                     parametersBuilder.append(parameterName);
                 } else {
-                    try {
-                        parametersBuilder.append(parameterName).append("=").append(URLEncoder.encode(parameterValue, "UTF-8"));
-                    } catch (UnsupportedEncodingException e) {
-                        throw new TemplateProcessingException("Exception while processing link parameters", e);
-                    }
+                    parametersBuilder.append(parameterName).append('=');
+                    UrlEncoder.encode(parameterValue, parametersBuilder);
                 }
             }
         }
@@ -160,49 +211,26 @@ public final class StripesLinkExpression extends SimpleExpression {
         /*
          * Link resolution and encoding
          */
-        final IWebContext webContext = (IWebContext) processingContext.getContext();
-        
-        final HttpServletRequest request = webContext.getHttpServletRequest();
-        final HttpServletResponse response = webContext.getHttpServletResponse();
-
         String url = null;
         
-        if (isLinkBaseContextRelative(linkBase)) {
-            url = request.getContextPath() + linkBase + parametersBuilder + urlFragment;
-        } else if (isLinkBaseServerRelative(linkBase)) {
+        final LinkBase.Kind kind = (linkDescription != null?
+                linkDescription.getKind() : LinkBase.classify(linkBase));
+        if (kind == LinkBase.Kind.CONTEXT_RELATIVE) {
+            url = contextPath + linkBase + parametersBuilder + urlFragment;
+        } else if (kind == LinkBase.Kind.SERVER_RELATIVE) {
             // remove the "~" from the link base
             url = linkBase.substring(1) + parametersBuilder + urlFragment;
-        } else if (isLinkBaseAbsolute(linkBase)) {
-            url = linkBase + parametersBuilder + urlFragment;
         } else {
-            // Link base is current-URL-relative
+            // Link base is absolute or current-URL-relative
             url = linkBase + parametersBuilder + urlFragment;
         }
 
-        return (response != null? response.encodeURL(url) : url);
+        staticLinks.put(expression, contextPath, locale, url);
+        return sctx.memoizeLink(linkKey, sctx.encodeUrl(url));
     }
     
     
 
-    private static boolean linkLooksLikeStripesClass(final String linkBase) {
-        return (!linkBase.contains("/") && !linkBase.contains(":") && !linkBase.contains("?") && !linkBase.endsWith(".html") && !linkBase.endsWith(".jsp"));
-    }
-
-    
-    private static boolean isLinkBaseAbsolute(final String linkBase) {
-        return (linkBase.contains("://") ||
-                linkBase.toLowerCase().startsWith("mailto:") || // Email URLs
-                linkBase.startsWith("//")); // protocol-relative URLs
-    }
-
-    private static boolean isLinkBaseContextRelative(final String linkBase) {
-        return linkBase.startsWith("/") && !linkBase.startsWith("//");
-    }
-
-    private static boolean isLinkBaseServerRelative(final String linkBase) {
-        return linkBase.startsWith("~/");
-    }
-    
     private static Map<String,List<Object>> resolveParameters(
             final Configuration configuration, final IProcessingContext processingContext, 
             final LinkExpression expression, final StandardExpressionExecutionContext expContext) {
@@ -310,7 +338,12 @@ public final class StripesLinkExpression extends SimpleExpression {
 
 	@Override
 	public String getStringRepresentation() {
-		return null;
+		return expression.getStringRepresentation();
+	}
+
+	@Override
+	public Object execute(final Configuration configuration, final IProcessingContext processingContext, final StandardExpressionExecutionContext expContext) {
+		return executeLink(configuration, processingContext, expression, expContext);
 	}
     
 }
@@ -0,0 +1,114 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.thymeleaf.exceptions.TemplateProcessingException;
+import org.thymeleaf.stripes.context.StripesWebContext;
+import org.thymeleaf.stripes.util.LinkTemplate;
+import org.thymeleaf.util.Validate;
+
+
+/**
+ *   Utility class for rendering many links to the same ActionBean, e.g. inside <tt>th:each</tt>.
+ *   An object of this class is usually available in variable evaluation expressions with the name
+ *   <tt>#stripesLinks</tt>:
+ *   <pre>
+ *   &lt;a th:each="item : ${items}" th:href="${#stripesLinks.url('com.example.ItemAction', 'view', 'id', item.id)}"&gt;
+ *   </pre>
+ *   Link templates are kept by the {@link StripesWebContext}, so every row shares the binding
+ *   resolution and the context path.
+ */
+public final class StripesLinks {
+
+    private final StripesWebContext context;
+
+
+    public StripesLinks(final StripesWebContext context) {
+        super();
+        Validate.notNull(context, "Context cannot be null");
+        this.context = context;
+    }
+
+    
+    
+    /**
+     * template methods. Urls rendered by templates are not passed through
+     * {@link StripesWebContext#encodeUrl(String)}.
+     */
+    public LinkTemplate template(final String className) {
+        return template(className, null);
+    }
+    public LinkTemplate template(final String className, final String event) {
+        LinkTemplate template = null;
+        try {
+            template = context.getLinkTemplate(className, event);
+        } catch (final Exception e) {
+            throw new TemplateProcessingException("Could not resolve ActionBean url [" + className + "]. Exception: " + e.getClass().getName() + " : " + e.getMessage());
+        }
+        if (template == null) {
+            throw new TemplateProcessingException("Could not resolve ActionBean url [" + className + "]: class not found");
+        }
+        return template;
+    }
+
+    
+    /**
+     * url methods
+     */
+    public String url(final String className, final String event) {
+        return encode(template(className, event).render());
+    }
+    public String url(final String className, final String event, final String name, final Object value) {
+        return encode(template(className, event).render(name, value));
+    }
+    public String url(final String className, final String event, final Map<String,?> parameters) {
+        return encode(template(className, event).render(parameters));
+    }
+
+    
+    /**
+     * urls methods
+     */
+    public List<String> urls(final String className, final String event, final String name, final Iterable<?> values) {
+        return encode(template(className, event).renderAll(name, values));
+    }
+    public List<String> urls(final String className, final String event, final Iterable<? extends Map<String,?>> parameterSets) {
+        return encode(template(className, event).renderAll(parameterSets));
+    }
+
+    
+    
+    private String encode(final String url) {
+        return context.encodeUrl(url);
+    }
+
+    private List<String> encode(final List<String> urls) {
+        final List<String> result = new ArrayList<String>(urls.size());
+        for (final String url : urls) {
+            result.add(encode(url));
+        }
+        return result;
+    }
+
+}
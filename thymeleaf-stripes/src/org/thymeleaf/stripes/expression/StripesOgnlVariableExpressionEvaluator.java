@@ -21,13 +21,32 @@ package org.thymeleaf.stripes.expression;
 
 import java.util.Map;
 
+import ognl.OgnlRuntime;
+
+import org.thymeleaf.context.IContext;
 import org.thymeleaf.context.IProcessingContext;
 import org.thymeleaf.standard.expression.OgnlVariableExpressionEvaluator;
+import org.thymeleaf.stripes.context.StripesWebContext;
+import org.thymeleaf.stripes.processor.element.LazyActionBean;
 
 public class StripesOgnlVariableExpressionEvaluator extends OgnlVariableExpressionEvaluator {
 	
+    public static final String STRIPES_LINKS_EVALUATION_VARIABLE_NAME = "stripesLinks";
+
+    static {
+        // Lazy ActionBeans are read through to the bean they defer
+        final LazyActionBeanAccessor lazyActionBeanAccessor = new LazyActionBeanAccessor();
+        OgnlRuntime.setPropertyAccessor(LazyActionBean.class, lazyActionBeanAccessor);
+        OgnlRuntime.setMethodAccessor(LazyActionBean.class, lazyActionBeanAccessor);
+    }
+
     protected Map<String,Object> computeAdditionalContextVariables(final IProcessingContext processingContext) {
-        return JodaExpressionEvaluatorObjects.computeEvaluationObjects(processingContext);
+        final Map<String,Object> variables = JodaExpressionEvaluatorObjects.computeEvaluationObjects(processingContext);
+        final IContext context = processingContext.getContext();
+        if (context instanceof StripesWebContext) {
+            variables.put(STRIPES_LINKS_EVALUATION_VARIABLE_NAME, ((StripesWebContext) context).getStripesLinks());
+        }
+        return variables;
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.expression;
+
+import org.thymeleaf.Configuration;
+import org.thymeleaf.context.IProcessingContext;
+import org.thymeleaf.standard.expression.IStandardExpression;
+import org.thymeleaf.standard.expression.IStandardExpressionParser;
+import org.thymeleaf.standard.expression.LinkExpression;
+import org.thymeleaf.standard.expression.StandardExpressionParser;
+
+/**
+ * <p>
+ *   Standard expression parser that makes link expressions Stripes-aware without modifying
+ *   any class: parsed expressions that are a {@link LinkExpression} are returned wrapped in a
+ *   {@link StripesLinkExpression}.
+ * </p>
+ * <p>
+ *   It's the dialect's default. Link expressions nested in other expressions (e.g.
+ *   <tt>${cond}? @{A} : @{B}</tt>), in assignations or in link parameters are built by Thymeleaf
+ *   itself and aren't wrapped: they need LinkExpression to be patched, by the
+ *   {@link org.thymeleaf.stripes.agent.LinkExpressionAgent} or the dialect's <tt>patch</tt> link mode.
+ * </p>
+ */
+public final class StripesStandardExpressionParser implements IStandardExpressionParser {
+
+    private final StandardExpressionParser delegate = new StandardExpressionParser();
+
+    
+    public StripesStandardExpressionParser() {
+        super();
+    }
+
+    
+    
+    public IStandardExpression parseExpression(final Configuration configuration, final IProcessingContext processingContext, final String input) {
+        final IStandardExpression expression = delegate.parseExpression(configuration, processingContext, input);
+        if (expression instanceof LinkExpression) {
+            return new StripesLinkExpression((LinkExpression) expression);
+        }
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return "Stripes Standard Expression Parser";
+    }
+
+}
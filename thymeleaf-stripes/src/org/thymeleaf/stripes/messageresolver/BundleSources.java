@@ -0,0 +1,142 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.messageresolver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PropertyResourceBundle;
+import java.util.ResourceBundle;
+
+/**
+ * <p>
+ *   The properties files the bundles of a locale are read from, in lookup order (each bundle's
+ *   locale candidates, or the default locale's if there are none, then the base bundle), with
+ *   their modification times when read, to tell when they need reloading.
+ * </p>
+ * <p>
+ *   Files are read bypassing the JDK's ResourceBundle cache, whose entries would otherwise be
+ *   returned unchanged. Only files in the file system are watched (not those in jars), and only
+ *   those existing when read: a properties file for a more specific locale added later is not
+ *   noticed.
+ * </p>
+ */
+final class BundleSources {
+
+	private static final ResourceBundle.Control CONTROL = ResourceBundle.Control.getControl(ResourceBundle.Control.FORMAT_PROPERTIES);
+
+	private final List<URL> resources = new ArrayList<URL>();
+	private final Map<File,Long> lastModified = new HashMap<File,Long>();
+
+
+	BundleSources(final String[] bundleNames, final Locale locale, final ClassLoader loader) {
+		super();
+		for (final String bundleName : bundleNames) {
+			List<URL> specific = find(bundleName, locale, loader);
+			if (specific.isEmpty()) {
+				final Locale fallback = CONTROL.getFallbackLocale(bundleName, locale);
+				if (fallback != null) specific = find(bundleName, fallback, loader);
+			}
+			resources.addAll(specific);
+			final URL base = loader.getResource(resourceName(bundleName, Locale.ROOT));
+			if (base != null) resources.add(base);
+		}
+		for (final URL resource : resources) {
+			if (!"file".equals(resource.getProtocol())) continue;
+			try {
+				final File file = new File(resource.toURI());
+				lastModified.put(file, Long.valueOf(file.lastModified()));
+			} catch (final URISyntaxException e) {
+				// Not a file we can watch
+			}
+		}
+	}
+
+	private static List<URL> find(final String bundleName, final Locale locale, final ClassLoader loader) {
+		final List<URL> found = new ArrayList<URL>(3);
+		for (final Locale candidate : CONTROL.getCandidateLocales(bundleName, locale)) {
+			if (Locale.ROOT.equals(candidate)) continue;
+			final URL resource = loader.getResource(resourceName(bundleName, candidate));
+			if (resource != null) found.add(resource);
+		}
+		return found;
+	}
+
+	private static String resourceName(final String bundleName, final Locale locale) {
+		return CONTROL.toResourceName(CONTROL.toBundleName(bundleName, locale), "properties");
+	}
+
+
+
+	/**
+	 * @return the urls of the properties files, in lookup order. Locales finding the same files
+	 * share their messages
+	 */
+	List<String> getResourceNames() {
+		final List<String> names = new ArrayList<String>(resources.size());
+		for (final URL resource : resources) names.add(resource.toExternalForm());
+		return Collections.unmodifiableList(names);
+	}
+
+	/**
+	 * @return the bundles, freshly read, in lookup order
+	 */
+	ResourceBundle[] load() throws IOException {
+		final ResourceBundle[] bundles = new ResourceBundle[resources.size()];
+		for (int i = 0; i < bundles.length; i++) {
+			final URLConnection connection = resources.get(i).openConnection();
+			connection.setUseCaches(false);
+			final InputStream in = connection.getInputStream();
+			try {
+				bundles[i] = new PropertyResourceBundle(in);
+			} finally {
+				in.close();
+			}
+		}
+		return bundles;
+	}
+
+	/**
+	 * Checks the files for changes, recording their new modification times: a change is reported
+	 * once, even if reading the files then fails (e.g. one was deleted).
+	 * 
+	 * @return whether a file changed since the previous check, or since read for the first check
+	 */
+	boolean checkModified() {
+		boolean modified = false;
+		for (final Map.Entry<File,Long> source : lastModified.entrySet()) {
+			final long time = source.getKey().lastModified();
+			if (time == source.getValue().longValue()) continue;
+			source.setValue(Long.valueOf(time));
+			modified = true;
+		}
+		return modified;
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.messageresolver;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ResourceBundle;
+
+/**
+ * <p>
+ *   Immutable index of the messages of several resource bundles for one locale. A key is taken
+ *   from the first bundle that has it, and each bundle includes the messages of its parents (the
+ *   locale fallback chain), so a lookup here finds what looking up the bundles in order would.
+ * </p>
+ * <p>
+ *   Lookups are a single hash probe, and missing keys return null instead of throwing. Each
+ *   message keeps its parsed format, so formats are cached by bundles, key and locale.
+ * </p>
+ */
+final class MessageIndex {
+
+	private final Map<String,MessagePattern> messages;
+
+
+	/**
+	 * @param bundles the bundles in lookup order, null ones are skipped
+	 */
+	MessageIndex(final ResourceBundle... bundles) {
+		super();
+		final Map<String,MessagePattern> index = new HashMap<String,MessagePattern>();
+		for (final ResourceBundle bundle : bundles) {
+			if (bundle == null) continue;
+			for (final String key : bundle.keySet()) {
+				if (index.containsKey(key)) continue;
+				final Object message = bundle.getObject(key);
+				if (message instanceof String) index.put(key, new MessagePattern((String) message));
+			}
+		}
+		this.messages = Collections.unmodifiableMap(index);
+	}
+
+
+
+	/**
+	 * @return the message, or null if no bundle has the key
+	 */
+	MessagePattern getMessage(final String key) {
+		return messages.get(key);
+	}
+
+	int size() {
+		return messages.size();
+	}
+
+}
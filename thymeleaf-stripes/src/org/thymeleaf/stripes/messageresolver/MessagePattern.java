@@ -0,0 +1,68 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.messageresolver;
+
+import java.text.MessageFormat;
+
+/**
+ * <p>
+ *   A message and its {@link MessageFormat}, parsed the first time the message is formatted with
+ *   parameters. Instances are shared between threads, and formatting works on a copy of the
+ *   parsed format, as MessageFormat is not thread-safe.
+ * </p>
+ * <p>
+ *   Messages without placeholders or quotes format to themselves, so they skip MessageFormat.
+ * </p>
+ */
+final class MessagePattern {
+
+	private final String message;
+	private final boolean formatted;
+	private volatile MessageFormat format = null;
+
+
+	MessagePattern(final String message) {
+		super();
+		this.message = message;
+		// Quotes are unescaped by MessageFormat even with no placeholders
+		this.formatted = message.indexOf('{') != -1 || message.indexOf('\'') != -1;
+	}
+
+
+
+	String getMessage() {
+		return message;
+	}
+
+	/**
+	 * @return the message formatted as <tt>MessageFormat.format(message, parameters)</tt> would,
+	 * or the message itself if there are no parameters
+	 */
+	String format(final Object[] parameters) {
+		if (parameters == null || parameters.length == 0 || !formatted) return message;
+		MessageFormat parsed = format;
+		if (parsed == null) {
+			// Racing threads parse equal formats, any of them will do
+			format = parsed = new MessageFormat(message);
+		}
+		return ((MessageFormat) parsed.clone()).format(parameters);
+	}
+
+}
@@ -1,25 +1,48 @@
 package org.thymeleaf.stripes.messageresolver;
 
-import java.text.MessageFormat;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.MissingResourceException;
+import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.thymeleaf.Arguments;
 import org.thymeleaf.exceptions.ConfigurationException;
+import org.thymeleaf.exceptions.TemplateProcessingException;
 import org.thymeleaf.messageresolver.AbstractMessageResolver;
 import org.thymeleaf.messageresolver.MessageResolution;
 import org.thymeleaf.util.Validate;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 public final class PropertyResourceBundleMessageResolver extends AbstractMessageResolver {
     
     private static final Logger logger = LoggerFactory.getLogger(PropertyResourceBundleMessageResolver.class);
+    private static final int MAX_REQUESTED_LOCALES = 64;
     
     private List<String> configuringBundles;
     private String[] bundleNames;
+    // Configured bundles merged, by the bundles found for a locale (their locales, or files when reloading).
+    // Built on first use and replaced whole when reloaded, there are only as many as properties files combinations
+    private final ConcurrentMap<Object,MessageIndex> indexes = new ConcurrentHashMap<Object,MessageIndex>();
+    // Bundles found for each locale requested, bounded as clients may ask for any locale
+    private final Cache<Locale,Object> resolvedBundles = CacheBuilder.newBuilder().maximumSize(MAX_REQUESTED_LOCALES).build();
+
+    private long reloadInterval = 0L;
+    private final ConcurrentMap<Object,BundleSources> sources = new ConcurrentHashMap<Object,BundleSources>();
+    private ScheduledExecutorService reloader = null;
 
     public PropertyResourceBundleMessageResolver() {
         super();
@@ -33,6 +56,36 @@ public final class PropertyResourceBundleMessageResolver extends AbstractMessage
     protected final void initializeSpecific() {
     	if (configuringBundles.size() == 0) throw new ConfigurationException("You need to add at least one resource bundle name before initializing the engine to be able to use this message resolver.");
     	bundleNames = configuringBundles.toArray(bundleNames);
+    	if (reloadInterval > 0L) {
+    		reloader = Executors.newSingleThreadScheduledExecutor(
+    				new ThreadFactoryBuilder().setNameFormat("thymeleaf-stripes-message-reloader-%d").setDaemon(true).build());
+    		reloader.scheduleWithFixedDelay(new Reload(this, reloader), reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+    	}
+    }
+
+    public long getReloadInterval() {
+    	return reloadInterval;
+    }
+
+    /**
+     * Sets how often, in milliseconds, the properties files of the bundles are checked for changes.
+     * Changed locales are reloaded in the background, and their messages replaced at once when done.
+     * 0 (the default) never reloads, leaving bundles to the JDK's ResourceBundle cache.
+     * <p>
+     * Files are checked from a daemon thread, which holds the application's classloader while it runs.
+     * Call {@link #stopReloading()} when the application stops (e.g. from a ServletContextListener's
+     * contextDestroyed), otherwise the thread only ends once this resolver has been garbage collected.
+     */
+    public void setReloadInterval(final long reloadInterval) {
+    	checkNotInitialized();
+    	this.reloadInterval = reloadInterval;
+    }
+
+    /**
+     * Stops checking bundles for changes, e.g. when the application stops.
+     */
+    public void stopReloading() {
+    	if (reloader != null) reloader.shutdownNow();
     }
     
     public void addBundleFromProperties(String fileNames) {
@@ -55,21 +108,98 @@ public final class PropertyResourceBundleMessageResolver extends AbstractMessage
         Validate.notNull(arguments.getContext().getLocale(), "Locale in context cannot be null");
         Validate.notNull(key, "Message key cannot be null");
 
-        String message = null;
-        // Look up in all the configured bundles until key is found
-        for (int i = 0; i < bundleNames.length; i++) {
-        	try {
-            	message = ResourceBundle.getBundle(bundleNames[i], arguments.getContext().getLocale()).getString(key);
-            	break;
-            } catch (MissingResourceException mre) {
-                // Nothing to catch, key may exist in another bundle
-            }
-        }
+        final MessagePattern message = getIndex(arguments.getContext().getLocale()).getMessage(key);
         // A key not found should not throw an exception
         if (message == null) return null;
         // If message has parameters, format it
-        if (messageParameters != null && messageParameters.length > 0) return new MessageResolution(MessageFormat.format(message, messageParameters));
-        else return new MessageResolution(message);
+        return new MessageResolution(message.format(messageParameters));
+    }
+
+    private MessageIndex getIndex(final Locale locale) {
+    	final Object resolved = resolvedBundles.getIfPresent(locale);
+    	if (resolved != null) {
+    		final MessageIndex index = indexes.get(resolved);
+    		if (index != null) return index;
+    	}
+    	return loadIndex(locale);
+    }
+
+    private MessageIndex loadIndex(final Locale locale) {
+    	final Object resolved;
+    	MessageIndex index;
+    	if (reloader != null) {
+    		// Read from the files watched, bypassing the JDK's bundle cache
+    		final BundleSources bundleSources = new BundleSources(bundleNames, locale, getClass().getClassLoader());
+    		resolved = bundleSources.getResourceNames();
+    		index = indexes.get(resolved);
+    		if (index == null) {
+    			try {
+    				index = new MessageIndex(bundleSources.load());
+    			} catch (final IOException e) {
+    				throw new TemplateProcessingException("Could not read resource bundles for locale [" + locale + "]", e);
+    			}
+    			sources.putIfAbsent(resolved, bundleSources);
+    		}
+    	} else {
+    		// Look up keys in the configured bundles in order
+    		final ResourceBundle[] bundles = new ResourceBundle[bundleNames.length];
+    		final List<Locale> locales = new ArrayList<Locale>(bundleNames.length);
+    		for (int i = 0; i < bundleNames.length; i++) {
+    			bundles[i] = ResourceBundle.getBundle(bundleNames[i], locale);
+    			locales.add(bundles[i].getLocale());
+    		}
+    		resolved = locales;
+    		index = indexes.get(resolved);
+    		if (index == null) index = new MessageIndex(bundles);
+    	}
+    	final MessageIndex existing = indexes.putIfAbsent(resolved, index);
+    	if (existing != null) {
+    		index = existing;
+    	} else {
+    		logger.debug("Indexed {} messages for locale [{}]", Integer.valueOf(index.size()), locale);
+    	}
+    	resolvedBundles.put(locale, resolved);
+    	return index;
+    }
+
+    private void reloadModified() {
+    	for (final Map.Entry<Object,BundleSources> source : sources.entrySet()) {
+    		if (!source.getValue().checkModified()) continue;
+    		try {
+    			final MessageIndex index = new MessageIndex(source.getValue().load());
+    			// Rendering threads see either the old messages or the new ones, never a mix
+    			indexes.put(source.getKey(), index);
+    			logger.info("[STRIPES THYMELEAF PLUGIN] Reloaded {} messages from {}", Integer.valueOf(index.size()), source.getKey());
+    		} catch (final Exception e) {
+    			logger.warn("[STRIPES THYMELEAF PLUGIN] Could not reload messages from " + source.getKey() + ", keeping the previous ones", e);
+    		}
+    	}
+    }
+
+    /**
+     * Reloads the modified bundles of a resolver, as long as it's in use. Resolvers are only held weakly,
+     * so that one no longer referenced stops its reloading thread instead of being kept by it.
+     */
+    private static final class Reload implements Runnable {
+
+    	private final WeakReference<PropertyResourceBundleMessageResolver> resolver;
+    	private final ScheduledExecutorService reloader;
+
+    	Reload(final PropertyResourceBundleMessageResolver resolver, final ScheduledExecutorService reloader) {
+    		super();
+    		this.resolver = new WeakReference<PropertyResourceBundleMessageResolver>(resolver);
+    		this.reloader = reloader;
+    	}
+
+    	public void run() {
+    		final PropertyResourceBundleMessageResolver current = resolver.get();
+    		if (current == null) {
+    			reloader.shutdown();
+    			return;
+    		}
+    		current.reloadModified();
+    	}
+
     }
 
 }
\ No newline at end of file
@@ -1,21 +1,35 @@
 package org.thymeleaf.stripes.messageresolver;
 
-import java.text.MessageFormat;
+import java.util.Locale;
 import java.util.MissingResourceException;
+import java.util.ResourceBundle;
 
+import net.sourceforge.stripes.config.Configuration;
 import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.localization.DefaultLocalizationBundleFactory;
 import net.sourceforge.stripes.localization.LocalizationBundleFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.thymeleaf.Arguments;
+import org.thymeleaf.context.IContext;
 import org.thymeleaf.messageresolver.AbstractMessageResolver;
 import org.thymeleaf.messageresolver.MessageResolution;
+import org.thymeleaf.stripes.context.StripesWebContext;
 import org.thymeleaf.util.Validate;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 public final class StripesMessageResolver extends AbstractMessageResolver {
     
     private static final Logger logger = LoggerFactory.getLogger(StripesMessageResolver.class);
+    private static final int MAX_INDEXED_LOCALES = 64;
+
+    // Field and error bundles merged for each locale, by Stripes configuration. Indexes hold every
+    // key of both bundles, so a key missing from one is known to be missing from the bundles.
+    // Only Stripes' own bundle factory is indexed, other factories may reload their bundles.
+    private final Cache<Configuration,Cache<Locale,MessageIndex>> indexes = CacheBuilder.newBuilder().weakKeys().build();
 
     public StripesMessageResolver() {
         super();
@@ -32,25 +46,63 @@ public final class StripesMessageResolver extends AbstractMessageResolver {
         Validate.notNull(arguments.getContext().getLocale(), "Locale in context cannot be null");
         Validate.notNull(key, "Message key cannot be null");
 
-        LocalizationBundleFactory bundleFactory = StripesFilter.getConfiguration().getLocalizationBundleFactory();
-        // First, look up the fields bundle
-        try {
-        	String message = bundleFactory.getFormFieldBundle(arguments.getContext().getLocale()).getString(key);
-            if (messageParameters != null && messageParameters.length > 0) return new MessageResolution(MessageFormat.format(message, messageParameters));
-            else return new MessageResolution(message);
-        } catch (MissingResourceException mre) {
-            // Nothing to catch, key may not be a field but an error message
-        }
-        // If no match found in fields, check in errors bundle
-        try {
-        	String message = bundleFactory.getErrorMessageBundle(arguments.getContext().getLocale()).getString(key);
-            if (messageParameters != null && messageParameters.length > 0) return new MessageResolution(MessageFormat.format(message, messageParameters));
-            else return new MessageResolution(message);
-        } catch (MissingResourceException mre) {
-        	// Nothing to catch, we don't raise an exception for a missing key
+        // The context knows the configuration, saving the lookup in StripesFilter's thread local
+        final IContext context = arguments.getContext();
+        final Configuration config = (context instanceof StripesWebContext ?
+                ((StripesWebContext) context).getStripesConfiguration() : StripesFilter.getConfiguration());
+        final LocalizationBundleFactory bundleFactory = config.getLocalizationBundleFactory();
+        final Locale locale = context.getLocale();
+        final MessagePattern message;
+        if (bundleFactory.getClass() == DefaultLocalizationBundleFactory.class) {
+            // Fields bundle first, then errors bundle
+            message = getIndex(config, bundleFactory, locale).getMessage(key);
+        } else {
+            message = lookUpMessage(bundleFactory, locale, key);
         }
-        // Not found in either of the bundles
-        return null;
+        // Not found in either of the bundles, we don't raise an exception for a missing key
+        if (message == null) return null;
+        return new MessageResolution(message.format(messageParameters));
+    }
+
+    private MessageIndex getIndex(final Configuration config, final LocalizationBundleFactory bundleFactory, final Locale locale) {
+    	Cache<Locale,MessageIndex> configIndexes = indexes.getIfPresent(config);
+    	if (configIndexes == null) {
+    		// Bounded, as clients may ask for any locale
+    		configIndexes = CacheBuilder.newBuilder().maximumSize(MAX_INDEXED_LOCALES).build();
+    		final Cache<Locale,MessageIndex> existing = indexes.asMap().putIfAbsent(config, configIndexes);
+    		if (existing != null) configIndexes = existing;
+    	}
+    	MessageIndex index = configIndexes.getIfPresent(locale);
+    	if (index == null) {
+    		// Racing threads build equal indexes, any of them will do
+    		index = new MessageIndex(getBundle(bundleFactory, locale, true), getBundle(bundleFactory, locale, false));
+    		configIndexes.put(locale, index);
+    		logger.debug("Indexed {} Stripes messages for locale [{}]", Integer.valueOf(index.size()), locale);
+    	}
+    	return index;
+    }
+
+    private static MessagePattern lookUpMessage(final LocalizationBundleFactory bundleFactory, final Locale locale, final String key) {
+    	// First, look up the fields bundle, then the errors bundle
+    	for (final boolean formFields : new boolean[] { true, false }) {
+    		final ResourceBundle bundle = getBundle(bundleFactory, locale, formFields);
+    		if (bundle == null) continue;
+    		try {
+    			return new MessagePattern(bundle.getString(key));
+    		} catch (MissingResourceException mre) {
+    			// Nothing to catch, key may be in the next bundle
+    		}
+    	}
+    	return null;
+    }
+
+    private static ResourceBundle getBundle(final LocalizationBundleFactory bundleFactory, final Locale locale, final boolean formFields) {
+    	try {
+    		return (formFields ? bundleFactory.getFormFieldBundle(locale) : bundleFactory.getErrorMessageBundle(locale));
+    	} catch (MissingResourceException mre) {
+    		// No such bundle, its keys just won't be found
+    		return null;
+    	}
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reports to several sinks, e.g. JMX histograms and log summaries.
+ */
+public class CompositeUseActionBeanMetricsSink implements IUseActionBeanMetricsSink {
+
+	private final List<IUseActionBeanMetricsSink> sinks;
+
+
+	public CompositeUseActionBeanMetricsSink(final IUseActionBeanMetricsSink... sinks) {
+		super();
+		this.sinks = Arrays.asList(sinks.clone());
+	}
+
+
+
+	public void beanExecuted(final UseActionBeanTiming timing) {
+		for (final IUseActionBeanMetricsSink sink : sinks) {
+			sink.beanExecuted(timing);
+		}
+	}
+
+	public void requestCompleted(final UseActionBeanRequestMetrics metrics) {
+		for (final IUseActionBeanMetricsSink sink : sinks) {
+			sink.requestCompleted(metrics);
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.metrics;
+
+/**
+ * <p>
+ *   Receives the timings of <tt>use-action-bean</tt> executions, set with
+ *   {@link org.thymeleaf.stripes.dialect.StripesStandardDialect#setUseActionBeanMetricsSink(IUseActionBeanMetricsSink)}.
+ *   Without a sink, nothing is timed.
+ * </p>
+ * <p>
+ *   Implementations must be thread-safe: async beans are reported from the threads they run in.
+ * </p>
+ */
+public interface IUseActionBeanMetricsSink {
+
+	/**
+	 * Called once each bean has been executed, successfully or not.
+	 */
+	public void beanExecuted(UseActionBeanTiming timing);
+
+	/**
+	 * Called when a request that executed beans ends, if {@link UseActionBeanMetricsListener}
+	 * is registered in the web application.
+	 */
+	public void requestCompleted(UseActionBeanRequestMetrics metrics);
+
+}
@@ -0,0 +1,121 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.sourceforge.stripes.controller.LifecycleStage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>
+ *   Aggregates latencies in a {@link LatencyHistogram} per bean, event and lifecycle stage (plus
+ *   one for the whole execution, with stage <tt>Total</tt>), each registered as an MBean named
+ *   <tt>&lt;domain&gt;:type=UseActionBean,bean=...,event=...,stage=...</tt>.
+ * </p>
+ * <p>
+ *   Call {@link #unregister()} when the application stops.
+ * </p>
+ */
+public class JmxUseActionBeanMetricsSink implements IUseActionBeanMetricsSink {
+
+	private static final Logger logger = LoggerFactory.getLogger(JmxUseActionBeanMetricsSink.class);
+
+	public static final String DEFAULT_DOMAIN = "org.thymeleaf.stripes";
+	public static final String TOTAL_STAGE = "Total";
+
+	private final MBeanServer server;
+	private final String domain;
+	private final ConcurrentMap<ObjectName,LatencyHistogram> histograms = new ConcurrentHashMap<ObjectName,LatencyHistogram>();
+
+
+	public JmxUseActionBeanMetricsSink() {
+		this(ManagementFactory.getPlatformMBeanServer(), DEFAULT_DOMAIN);
+	}
+
+	public JmxUseActionBeanMetricsSink(final MBeanServer server, final String domain) {
+		super();
+		this.server = server;
+		this.domain = domain;
+	}
+
+
+
+	public void beanExecuted(final UseActionBeanTiming timing) {
+		for (final LifecycleStage stage : timing.getStages()) {
+			getHistogram(timing.getBeanclass(), timing.getEvent(), stage.name()).record(timing.getNanos(stage));
+		}
+		getHistogram(timing.getBeanclass(), timing.getEvent(), TOTAL_STAGE).record(timing.getTotalNanos());
+	}
+
+	public void requestCompleted(final UseActionBeanRequestMetrics metrics) {
+		// Histograms are updated as beans are executed
+	}
+
+	/**
+	 * @param stage a {@link LifecycleStage} name, or {@link #TOTAL_STAGE}
+	 */
+	public LatencyHistogram getHistogram(final String beanclass, final String event, final String stage) {
+		final ObjectName name = objectName(beanclass, event, stage);
+		LatencyHistogram histogram = histograms.get(name);
+		if (histogram == null) {
+			final LatencyHistogram created = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+				try {
+					server.registerMBean(created, name);
+				} catch (final JMException e) {
+					logger.warn("[STRIPES THYMELEAF PLUGIN] Could not register MBean {}: {}", name, e.getMessage());
+				}
+			}
+		}
+		return histogram;
+	}
+
+	public void unregister() {
+		for (final ObjectName name : histograms.keySet()) {
+			try {
+				if (server.isRegistered(name)) server.unregisterMBean(name);
+			} catch (final JMException e) {
+				logger.warn("[STRIPES THYMELEAF PLUGIN] Could not unregister MBean {}: {}", name, e.getMessage());
+			}
+		}
+		histograms.clear();
+	}
+
+	private ObjectName objectName(final String beanclass, final String event, final String stage) {
+		try {
+			return new ObjectName(domain + ":type=UseActionBean,bean=" + ObjectName.quote(String.valueOf(beanclass))
+					+ ",event=" + ObjectName.quote(event == null ? "" : event) + ",stage=" + stage);
+		} catch (final JMException e) {
+			throw new IllegalArgumentException("Invalid MBean name for bean " + beanclass + " and event " + event, e);
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power of two buckets, in microseconds.
+ */
+public final class LatencyHistogram implements LatencyHistogramMBean {
+
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+
+	public LatencyHistogram() {
+		super();
+	}
+
+
+
+	public void record(final long nanos) {
+		final long micros = Math.max(0L, nanos / 1000L);
+		// Bucket i holds latencies in [2^(i-1), 2^i)
+		final int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		long max;
+		while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+			// retry
+		}
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public double getMeanMicros() {
+		final long n = count.get();
+		return (n == 0L ? 0.0 : (double) totalMicros.get() / n);
+	}
+
+	public long getMaxMicros() {
+		return maxMicros.get();
+	}
+
+	public long getP50Micros() {
+		return getPercentileMicros(0.50);
+	}
+
+	public long getP90Micros() {
+		return getPercentileMicros(0.90);
+	}
+
+	public long getP99Micros() {
+		return getPercentileMicros(0.99);
+	}
+
+	public long getPercentileMicros(final double percentile) {
+		final long[] counts = getBucketCounts();
+		long n = 0L;
+		for (final long c : counts) n += c;
+		if (n == 0L) return 0L;
+		final long rank = (long) Math.ceil(percentile * n);
+		long seen = 0L;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) return Math.min(1L << i, getMaxMicros());
+		}
+		return getMaxMicros();
+	}
+
+	public long[] getBucketCounts() {
+		final long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+
+}
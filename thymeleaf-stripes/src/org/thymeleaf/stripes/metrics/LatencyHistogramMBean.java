@@ -0,0 +1,44 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.metrics;
+
+/**
+ * JMX view of a {@link LatencyHistogram}. Percentiles are the upper bound of their bucket.
+ */
+public interface LatencyHistogramMBean {
+
+	public long getCount();
+
+	public double getMeanMicros();
+
+	public long getMaxMicros();
+
+	public long getP50Micros();
+
+	public long getP90Micros();
+
+	public long getP99Micros();
+
+	/**
+	 * @return the counts of each bucket, bucket <tt>i</tt> holding latencies under 2<sup>i</sup> microseconds
+	 */
+	public long[] getBucketCounts();
+
+}
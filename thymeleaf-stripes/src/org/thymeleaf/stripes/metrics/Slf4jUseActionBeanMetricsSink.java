@@ -0,0 +1,92 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.metrics;
+
+import java.util.List;
+import java.util.Locale;
+
+import net.sourceforge.stripes.controller.LifecycleStage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs one INFO line per request (see {@link UseActionBeanMetricsListener}) with the time of each
+ * bean and stage, e.g.
+ * <tt>use-action-bean: 2 beans in 12.3 ms [com.x.Foo#view 10.1 ms (ActionBeanResolution 0.2,
+ * BindingAndValidation 1.0, EventHandling 8.9), com.x.Bar 2.2 ms (...)]</tt>.
+ * Each execution is also logged at DEBUG level as it ends.
+ */
+public class Slf4jUseActionBeanMetricsSink implements IUseActionBeanMetricsSink {
+
+	private final Logger logger;
+
+
+	public Slf4jUseActionBeanMetricsSink() {
+		this(LoggerFactory.getLogger(Slf4jUseActionBeanMetricsSink.class));
+	}
+
+	public Slf4jUseActionBeanMetricsSink(final Logger logger) {
+		super();
+		this.logger = logger;
+	}
+
+
+
+	public void beanExecuted(final UseActionBeanTiming timing) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("use-action-bean: {}", append(new StringBuilder(128), timing));
+		}
+	}
+
+	public void requestCompleted(final UseActionBeanRequestMetrics metrics) {
+		if (!logger.isInfoEnabled()) return;
+		final List<UseActionBeanTiming> timings = metrics.getTimings();
+		final StringBuilder line = new StringBuilder(64 + 128 * timings.size());
+		line.append(timings.size()).append(timings.size() == 1 ? " bean in " : " beans in ");
+		millis(line, metrics.getTotalNanos()).append(" ms [");
+		for (int i = 0; i < timings.size(); i++) {
+			if (i > 0) line.append(", ");
+			append(line, timings.get(i));
+		}
+		logger.info("use-action-bean: {}", line.append(']'));
+	}
+
+	private static StringBuilder append(final StringBuilder line, final UseActionBeanTiming timing) {
+		line.append(timing.getBeanclass());
+		if (timing.getEvent() != null) line.append('#').append(timing.getEvent());
+		line.append(' ');
+		millis(line, timing.getTotalNanos()).append(" ms");
+		if (timing.isFailed()) line.append(" FAILED");
+		line.append(" (");
+		boolean first = true;
+		for (final LifecycleStage stage : timing.getStages()) {
+			if (!first) line.append(", ");
+			first = false;
+			millis(line.append(stage.name()).append(' '), timing.getNanos(stage));
+		}
+		return line.append(')');
+	}
+
+	private static StringBuilder millis(final StringBuilder line, final long nanos) {
+		return line.append(String.format(Locale.ROOT, "%.1f", Double.valueOf(nanos / 1000000.0)));
+	}
+
+}
@@ -0,0 +1,43 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.metrics;
+
+import javax.servlet.ServletRequestEvent;
+import javax.servlet.ServletRequestListener;
+
+/**
+ * Reports the <tt>use-action-bean</tt> metrics of each request to the sink when the request ends.
+ * Register it as a listener in <tt>web.xml</tt> to get per-request summaries.
+ */
+public class UseActionBeanMetricsListener implements ServletRequestListener {
+
+	public void requestInitialized(final ServletRequestEvent event) {
+		// Nothing to do, metrics are created by the first bean executed
+	}
+
+	public void requestDestroyed(final ServletRequestEvent event) {
+		final UseActionBeanRequestMetrics metrics =
+				(UseActionBeanRequestMetrics) event.getServletRequest().getAttribute(UseActionBeanRequestMetrics.REQUEST_ATTRIBUTE);
+		if (metrics != null) {
+			metrics.requestCompleted();
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.ServletRequest;
+
+/**
+ * Timings of the <tt>use-action-bean</tt> executions of a request, kept as a request attribute.
+ */
+public final class UseActionBeanRequestMetrics {
+
+	public static final String REQUEST_ATTRIBUTE = UseActionBeanRequestMetrics.class.getName();
+
+	private final IUseActionBeanMetricsSink sink;
+	private final List<UseActionBeanTiming> timings = Collections.synchronizedList(new ArrayList<UseActionBeanTiming>(4));
+
+
+	private UseActionBeanRequestMetrics(final IUseActionBeanMetricsSink sink) {
+		super();
+		this.sink = sink;
+	}
+
+	/**
+	 * @return the metrics of the request, created if needed, or null if there's no sink
+	 */
+	public static UseActionBeanRequestMetrics forRequest(final ServletRequest request, final IUseActionBeanMetricsSink sink) {
+		if (sink == null) return null;
+		UseActionBeanRequestMetrics metrics = (UseActionBeanRequestMetrics) request.getAttribute(REQUEST_ATTRIBUTE);
+		if (metrics == null) {
+			metrics = new UseActionBeanRequestMetrics(sink);
+			request.setAttribute(REQUEST_ATTRIBUTE, metrics);
+		}
+		return metrics;
+	}
+
+
+
+	/**
+	 * Starts timing an execution, to be ended with {@link #completed(UseActionBeanTiming, boolean)}.
+	 */
+	public UseActionBeanTiming start(final String beanclass, final String event) {
+		return new UseActionBeanTiming(beanclass, event);
+	}
+
+	public void completed(final UseActionBeanTiming timing, final boolean failed) {
+		if (failed) timing.failed();
+		timings.add(timing);
+		sink.beanExecuted(timing);
+	}
+
+	void requestCompleted() {
+		sink.requestCompleted(this);
+	}
+
+
+
+	/**
+	 * @return the executions of the request, in the order they ended
+	 */
+	public List<UseActionBeanTiming> getTimings() {
+		synchronized (timings) {
+			return new ArrayList<UseActionBeanTiming>(timings);
+		}
+	}
+
+	/**
+	 * @return the time spent executing beans, which async beans may make longer than the request
+	 */
+	public long getTotalNanos() {
+		long total = 0L;
+		for (final UseActionBeanTiming timing : getTimings()) {
+			total += timing.getTotalNanos();
+		}
+		return total;
+	}
+
+}
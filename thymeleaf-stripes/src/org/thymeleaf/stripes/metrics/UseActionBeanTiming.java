@@ -0,0 +1,102 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.metrics;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import net.sourceforge.stripes.controller.LifecycleStage;
+
+/**
+ * Time spent in each Stripes lifecycle stage by one <tt>use-action-bean</tt> execution.
+ * Applying validation errors is counted as part of {@link LifecycleStage#CustomValidation}.
+ */
+public final class UseActionBeanTiming {
+
+	private final String beanclass;
+	private final String event;
+	private final long[] stageNanos = new long[LifecycleStage.values().length];
+	private final Set<LifecycleStage> stages = EnumSet.noneOf(LifecycleStage.class);
+	private long totalNanos = 0L;
+	private boolean failed = false;
+
+
+	UseActionBeanTiming(final String beanclass, final String event) {
+		super();
+		this.beanclass = beanclass;
+		this.event = event;
+	}
+
+
+
+	/**
+	 * Adds the time since <tt>since</tt> to a stage.
+	 * 
+	 * @return the current time, to be passed as <tt>since</tt> for the next stage
+	 */
+	public long stage(final LifecycleStage stage, final long since) {
+		final long now = System.nanoTime();
+		final long elapsed = now - since;
+		stageNanos[stage.ordinal()] += elapsed;
+		totalNanos += elapsed;
+		stages.add(stage);
+		return now;
+	}
+
+	void failed() {
+		this.failed = true;
+	}
+
+
+
+	public String getBeanclass() {
+		return beanclass;
+	}
+
+	/**
+	 * @return the event executed, or null
+	 */
+	public String getEvent() {
+		return event;
+	}
+
+	/**
+	 * @return the stages run, in lifecycle order
+	 */
+	public Set<LifecycleStage> getStages() {
+		return stages;
+	}
+
+	public long getNanos(final LifecycleStage stage) {
+		return stageNanos[stage.ordinal()];
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * @return whether the execution ended with an exception
+	 */
+	public boolean isFailed() {
+		return failed;
+	}
+
+}
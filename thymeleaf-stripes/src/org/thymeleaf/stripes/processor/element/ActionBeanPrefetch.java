@@ -0,0 +1,457 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.processor.element;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.config.Configuration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.thymeleaf.Arguments;
+import org.thymeleaf.dom.Attribute;
+import org.thymeleaf.dom.Element;
+import org.thymeleaf.dom.NestableNode;
+import org.thymeleaf.dom.Node;
+import org.thymeleaf.stripes.context.StripesWebContext;
+import org.thymeleaf.stripes.metrics.UseActionBeanRequestMetrics;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * <p>
+ *   Concurrent execution of the <tt>use-action-bean</tt> elements marked <tt>async="true"</tt>.
+ *   When one of them is processed, it's started on the executor along with the async elements
+ *   that are sure to be processed after it, and it waits for all of them, so the page waits for
+ *   the slowest bean instead of for all of them in turn.
+ * </p>
+ * <p>
+ *   Elements sure to be processed are those following the element or any of its ancestors (which
+ *   are being processed) with no processor on the way: neither them nor the elements containing
+ *   them have a dialect's prefix, in their name or in any attribute. Elements that a <tt>th:if</tt>,
+ *   <tt>th:each</tt>, <tt>th:remove</tt>... may leave out are started when (and if) processed.
+ * </p>
+ * <p>
+ *   Elements of the same bean class are run one after another in the same task, on the bean the
+ *   first of them resolves, as they would be if they weren't async. Elements of different classes
+ *   must not depend on each other.
+ * </p>
+ * <p>
+ *   Nothing started outlives the element: each task runs against a {@link RequestSnapshot} taken on
+ *   the request thread, with the Stripes configuration of the request, and once all of them have
+ *   ended the attributes they set are applied to the request and their resolutions are executed,
+ *   on the request thread and in document order. If waiting is interrupted, the executions are
+ *   cancelled and waited for anyway.
+ * </p>
+ */
+final class ActionBeanPrefetch {
+
+	private static final Logger logger = LoggerFactory.getLogger(ActionBeanPrefetch.class);
+
+	private static final String REQUEST_ATTRIBUTE = ActionBeanPrefetch.class.getName();
+
+	private static volatile ExecutorService defaultExecutor = null;
+
+	private final Executor executor;
+	private final UseActionBeanRequestMetrics metrics;
+	private final Map<Element,Prefetched> prefetched = new IdentityHashMap<Element,Prefetched>();
+	// Elements with the same bean, event and flags share their execution, unless they run every time
+	private final Map<String,Prefetched> prefetchedByKey = new HashMap<String,Prefetched>();
+	// Started and not waited for yet, in document order
+	private final List<Task> running = new ArrayList<Task>();
+	private RequestSnapshot.Parameters parameters = null;
+
+
+	private ActionBeanPrefetch(final Executor executor, final UseActionBeanRequestMetrics metrics) {
+		super();
+		this.executor = executor;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param metrics the request's metrics, null if they're not being collected
+	 */
+	static ActionBeanPrefetch forRequest(final HttpServletRequest request, final Executor executor, final UseActionBeanRequestMetrics metrics) {
+		ActionBeanPrefetch prefetch = (ActionBeanPrefetch) request.getAttribute(REQUEST_ATTRIBUTE);
+		if (prefetch == null) {
+			prefetch = new ActionBeanPrefetch(executor, metrics);
+			request.setAttribute(REQUEST_ATTRIBUTE, prefetch);
+		}
+		return prefetch;
+	}
+
+	/**
+	 * Executor used when none is configured: one virtual thread per task on JVMs that have them,
+	 * a cached pool of daemon threads otherwise.
+	 */
+	static Executor defaultExecutor() {
+		ExecutorService executor = defaultExecutor;
+		if (executor == null) {
+			synchronized (ActionBeanPrefetch.class) {
+				executor = defaultExecutor;
+				if (executor == null) {
+					try {
+						executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+					} catch (final Exception e) {
+						executor = Executors.newCachedThreadPool(
+								new ThreadFactoryBuilder().setNameFormat("thymeleaf-stripes-use-action-bean-%d").setDaemon(true).build());
+					}
+					defaultExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+
+
+	/**
+	 * Starts the given element, unless it was already, along with the async elements sure to be
+	 * processed after it, and waits for all of them.
+	 * 
+	 * @return the ActionBean of the given element
+	 */
+	ActionBean get(final Arguments arguments, final Element element) throws Exception {
+		try {
+			startAll(arguments, element);
+		} finally {
+			awaitAll();
+		}
+		return prefetched.get(element).getActionBean();
+	}
+
+	private void startAll(final Arguments arguments, final Element element) {
+		if (prefetched.containsKey(element)) return;
+		final StripesWebContext sctx = (StripesWebContext) arguments.getContext();
+		// Tasks of this batch, by bean class
+		final Map<String,Task> batch = new LinkedHashMap<String,Task>(4);
+		prepare(sctx, element, batch);
+		final Set<String> prefixes = arguments.getConfiguration().getDialects().keySet();
+		if (!prefixes.contains(null)) {
+			// With a dialect without prefix, any element may be processed
+			Node node = element;
+			while (node.hasParent()) {
+				final NestableNode parent = node.getParent();
+				final List<Node> children = parent.getChildren();
+				boolean following = false;
+				for (final Node child : children) {
+					if (following) {
+						prepareReached(sctx, child, element.getNormalizedName(), prefixes, batch);
+					} else {
+						following = (child == node);
+					}
+				}
+				node = parent;
+			}
+		}
+		for (final Task task : batch.values()) {
+			logger.debug("Starting async useActionBean on class {}", task.getBeanclass());
+			running.add(task);
+			try {
+				executor.execute(task);
+			} catch (final RejectedExecutionException e) {
+				task.run();
+			}
+		}
+	}
+
+	private void prepareReached(final StripesWebContext sctx, final Node node, final String elementName,
+			final Set<String> prefixes, final Map<String,Task> batch) {
+		if (node instanceof Element) {
+			final Element element = (Element) node;
+			final Attribute[] attributes = element.unsafeGetAttributes();
+			for (int i = 0; i < element.numAttributes(); i++) {
+				if (prefixes.contains(attributes[i].getNormalizedPrefix())) return;
+			}
+			if (elementName.equals(element.getNormalizedName())) {
+				if (UseActionBeanDescriptor.forElement(element).isAsync() && !prefetched.containsKey(element)) {
+					prepare(sctx, element, batch);
+				}
+				return;
+			}
+			if (prefixes.contains(element.getNormalizedPrefix())) return;
+		}
+		if (node instanceof NestableNode) {
+			for (final Node child : ((NestableNode) node).getChildren()) {
+				prepareReached(sctx, child, elementName, prefixes, batch);
+			}
+		}
+	}
+
+	private void prepare(final StripesWebContext sctx, final Element element, final Map<String,Task> batch) {
+		final UseActionBeanDescriptor descriptor = UseActionBeanDescriptor.forElement(element);
+		final String executionKey = descriptor.getExecutionKey();
+		final Prefetched started = (executionKey != null ? prefetchedByKey.get(executionKey) : null);
+		if (started != null) {
+			prefetched.put(element, started);
+			return;
+		}
+		Task task = batch.get(descriptor.getBeanclass());
+		final RequestSnapshot snapshot;
+		if (task != null) {
+			snapshot = task.snapshot;
+		} else {
+			final HttpServletRequest request = sctx.getHttpServletRequest();
+			if (parameters == null) {
+				parameters = new RequestSnapshot.Parameters(request);
+			}
+			snapshot = new RequestSnapshot(request, parameters);
+		}
+		Prefetched prefetch;
+		try {
+			final UseActionBeanExecution execution = UseActionBeanExecution.prepare(sctx, descriptor, snapshot, metrics);
+			if (task == null) {
+				task = new Task(descriptor.getBeanclass(), snapshot);
+				batch.put(descriptor.getBeanclass(), task);
+			}
+			prefetch = task.add(execution);
+		} catch (final Exception e) {
+			// e.g. not an ActionBean, the element fails when processed
+			prefetch = new Prefetched(e);
+		}
+		prefetched.put(element, prefetch);
+		if (executionKey != null) {
+			prefetchedByKey.put(executionKey, prefetch);
+		}
+	}
+
+	/**
+	 * Waits for every task started and not waited for yet, then completes them on the request
+	 * thread in the order they were started.
+	 */
+	private void awaitAll() throws InterruptedException {
+		if (running.isEmpty()) return;
+		final List<Task> awaited = new ArrayList<Task>(running);
+		running.clear();
+		try {
+			for (final Task task : awaited) {
+				task.await();
+			}
+		} catch (final InterruptedException e) {
+			for (final Task task : awaited) {
+				task.cancel(true);
+			}
+			for (final Task task : awaited) {
+				task.awaitRun();
+				task.abandon(e);
+			}
+			throw e;
+		}
+		for (final Task task : awaited) {
+			task.complete();
+		}
+	}
+
+
+
+	/**
+	 * An element's execution in its task, or the failure preparing it.
+	 */
+	private static final class Prefetched {
+
+		private final Task task;
+		private final int index;
+		private final Exception failure;
+
+		Prefetched(final Task task, final int index) {
+			super();
+			this.task = task;
+			this.index = index;
+			this.failure = null;
+		}
+
+		Prefetched(final Exception failure) {
+			super();
+			this.task = null;
+			this.index = -1;
+			this.failure = failure;
+		}
+
+		ActionBean getActionBean() throws Exception {
+			if (failure != null) throw failure;
+			return task.getActionBean(index);
+		}
+
+	}
+
+
+	/**
+	 * Executions of the same bean class, run one after another on the bean the first one resolves.
+	 * Run on the executor, unless Stripes wouldn't find the request's configuration there.
+	 */
+	private static final class Executions implements Callable<Void> {
+
+		private final List<UseActionBeanExecution> executions = new ArrayList<UseActionBeanExecution>(2);
+		private final Thread requestThread = Thread.currentThread();
+		// Written by the thread running them, read on the request thread once it's done
+		private int succeeded = 0;
+		private boolean deferred = false;
+
+		public Void call() throws Exception {
+			final Configuration config = executions.get(0).getConfiguration();
+			if (Thread.currentThread() != requestThread && !StripesLifecycleConfiguration.forConfiguration(config).isCurrentOffRequestThread(config)) {
+				// Binding, type conversion... would use StripesFilter's configuration of this thread
+				deferred = true;
+				return null;
+			}
+			runAll();
+			return null;
+		}
+
+		void runAll() throws Exception {
+			ActionBean actionBean = null;
+			for (final UseActionBeanExecution execution : executions) {
+				execution.runOn(actionBean);
+				actionBean = execution.getActionBean();
+				succeeded++;
+			}
+		}
+
+	}
+
+
+	/**
+	 * Execution of the lifecycles of a bean class on the executor. Their outcome is only read on
+	 * the request thread, after waiting for it.
+	 */
+	private static final class Task extends FutureTask<Void> {
+
+		private final String beanclass;
+		private final Executions executions;
+		private final RequestSnapshot snapshot;
+		private final CountDownLatch finished = new CountDownLatch(1);
+		private volatile boolean started = false;
+
+		private final List<ActionBean> actionBeans = new ArrayList<ActionBean>(2);
+		private final List<Exception> failures = new ArrayList<Exception>(2);
+
+		Task(final String beanclass, final RequestSnapshot snapshot) {
+			this(beanclass, new Executions(), snapshot);
+		}
+
+		private Task(final String beanclass, final Executions executions, final RequestSnapshot snapshot) {
+			super(executions);
+			this.beanclass = beanclass;
+			this.executions = executions;
+			this.snapshot = snapshot;
+		}
+
+		String getBeanclass() {
+			return beanclass;
+		}
+
+		Prefetched add(final UseActionBeanExecution execution) {
+			executions.executions.add(execution);
+			actionBeans.add(null);
+			failures.add(null);
+			return new Prefetched(this, executions.executions.size() - 1);
+		}
+
+		@Override
+		public void run() {
+			started = true;
+			try {
+				super.run();
+			} finally {
+				finished.countDown();
+			}
+		}
+
+		void await() throws InterruptedException {
+			try {
+				get();
+			} catch (final ExecutionException e) {
+				// Reported by complete()
+			}
+		}
+
+		/**
+		 * Waits for the lifecycles to end, if they started, even if the task was cancelled.
+		 */
+		void awaitRun() {
+			if (started) {
+				Uninterruptibles.awaitUninterruptibly(finished);
+			}
+		}
+
+		void abandon(final Exception cause) {
+			for (int i = 0; i < failures.size(); i++) {
+				executions.executions.get(i).abandon();
+				failures.set(i, cause);
+			}
+		}
+
+		void complete() {
+			Exception failure = null;
+			try {
+				get();
+				if (executions.deferred) {
+					logger.debug("Running useActionBean on class {} on the request thread, Stripes finds another configuration off it", beanclass);
+					executions.runAll();
+				}
+			} catch (final ExecutionException e) {
+				failure = (e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+			} catch (final Exception e) {
+				failure = e;
+			}
+			snapshot.publish();
+			// Those after the one that failed didn't run, and fail as it did
+			for (int i = 0; i < failures.size(); i++) {
+				final UseActionBeanExecution execution = executions.executions.get(i);
+				if (i < executions.succeeded) {
+					try {
+						actionBeans.set(i, execution.complete());
+					} catch (final Exception e) {
+						failures.set(i, e);
+					}
+				} else {
+					execution.abandon();
+					failures.set(i, failure);
+				}
+			}
+		}
+
+		ActionBean getActionBean(final int index) throws Exception {
+			final Exception failure = failures.get(index);
+			if (failure != null) throw failure;
+			return actionBeans.get(index);
+		}
+
+	}
+
+}
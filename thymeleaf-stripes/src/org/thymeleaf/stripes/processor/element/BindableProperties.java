@@ -0,0 +1,137 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.processor.element;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import net.sourceforge.stripes.action.After;
+import net.sourceforge.stripes.action.Before;
+import net.sourceforge.stripes.controller.LifecycleStage;
+import net.sourceforge.stripes.controller.StripesConstants;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * <p>
+ *   Names a request parameter must start with to be bound to an ActionBean class: its bean
+ *   properties and fields, computed once per class (held weakly).
+ * </p>
+ * <p>
+ *   Used to skip binding and validation when a request has nothing to bind to a bean, e.g. widget
+ *   beans on GET pages. Overlooking a name would lose a binding, so names are collected generously.
+ * </p>
+ */
+final class BindableProperties {
+
+	private static final Cache<Class<?>,BindableProperties> bindableProperties = CacheBuilder.newBuilder().weakKeys().build();
+
+	private final Set<String> names = new HashSet<String>();
+	private final boolean bindingStageMethods;
+
+
+	private BindableProperties(final Class<?> beanClass) {
+		super();
+		try {
+			for (final PropertyDescriptor descriptor : Introspector.getBeanInfo(beanClass).getPropertyDescriptors()) {
+				names.add(descriptor.getName());
+			}
+		} catch (final IntrospectionException e) {
+			throw new IllegalArgumentException("Could not introspect ActionBean class " + beanClass.getName(), e);
+		}
+		boolean methods = false;
+		for (Class<?> c = beanClass; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (final Field field : c.getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers())) names.add(field.getName());
+			}
+			for (final Method method : c.getDeclaredMethods()) {
+				final Before before = method.getAnnotation(Before.class);
+				final After after = method.getAnnotation(After.class);
+				methods |= (before != null && isBindingStage(before.stages())) || (after != null && isBindingStage(after.stages()));
+			}
+		}
+		// Fields present in a form (e.g. unchecked checkboxes) are bound to null when absent
+		names.add(StripesConstants.URL_KEY_FIELDS_PRESENT);
+		this.bindingStageMethods = methods;
+	}
+
+	private static boolean isBindingStage(final LifecycleStage[] stages) {
+		for (final LifecycleStage stage : stages) {
+			if (stage == LifecycleStage.BindingAndValidation) return true;
+		}
+		return false;
+	}
+
+
+
+	static BindableProperties forBeanClass(final Class<?> beanClass) {
+		BindableProperties properties = bindableProperties.getIfPresent(beanClass);
+		if (properties == null) {
+			properties = new BindableProperties(beanClass);
+			bindableProperties.put(beanClass, properties);
+		}
+		return properties;
+	}
+
+	/**
+	 * @return whether the bean has <tt>@Before</tt> or <tt>@After</tt> methods for the binding
+	 * and validation stage, which would not run if binding was skipped
+	 */
+	boolean hasBindingStageMethods() {
+		return bindingStageMethods;
+	}
+
+	/**
+	 * @return whether any parameter of the request may be bound to the bean. Multipart requests
+	 * always may, their file parameters aren't request parameters.
+	 */
+	boolean isAnyBindable(final HttpServletRequest request) {
+		final String contentType = request.getContentType();
+		if (contentType != null && contentType.regionMatches(true, 0, "multipart/", 0, 10)) return true;
+		final Enumeration<?> parameterNames = request.getParameterNames();
+		while (parameterNames.hasMoreElements()) {
+			if (names.contains(rootName(((String) parameterNames.nextElement()).trim()))) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the property a parameter name starts with, e.g. <tt>person</tt> for
+	 * <tt>person.addresses[0].city</tt>
+	 */
+	private static String rootName(final String parameterName) {
+		for (int i = 0; i < parameterName.length(); i++) {
+			final char c = parameterName.charAt(i);
+			if (c == '.' || c == '[') return parameterName.substring(0, i);
+		}
+		return parameterName;
+	}
+
+}
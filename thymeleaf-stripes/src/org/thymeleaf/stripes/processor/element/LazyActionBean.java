@@ -0,0 +1,95 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.processor.element;
+
+import net.sourceforge.stripes.action.ActionBean;
+
+import org.thymeleaf.exceptions.TemplateProcessingException;
+import org.thymeleaf.stripes.context.StripesWebContext;
+import org.thymeleaf.stripes.metrics.UseActionBeanRequestMetrics;
+
+/**
+ * <p>
+ *   Deferred ActionBean put in the context by a <tt>use-action-bean</tt> element marked
+ *   <tt>lazy="true"</tt>. The Stripes lifecycle runs the first time {@link #get()} is called,
+ *   and never if it isn't.
+ * </p>
+ * <p>
+ *   Expressions don't need to call {@link #get()}: properties and methods read on this object
+ *   with OGNL (e.g. <tt>${bean.name}</tt>) are read on the ActionBean. That's also why
+ *   {@link #get()} and {@link #isResolved()} can't be called from OGNL expressions, which would
+ *   look them up on the ActionBean instead; they're meant for Java code (e.g. a custom dialect).
+ * </p>
+ * <p>
+ *   If an element with the same bean, event and flags already ran in the request by the time the
+ *   bean is first read, its ActionBean is used and the lifecycle doesn't run again.
+ * </p>
+ */
+public final class LazyActionBean {
+
+	private final StripesWebContext sctx;
+	private final UseActionBeanDescriptor descriptor;
+	private final UseActionBeanRequestMetrics metrics;
+
+	private ActionBean actionBean = null;
+	private TemplateProcessingException failure = null;
+
+
+	LazyActionBean(final StripesWebContext sctx, final UseActionBeanDescriptor descriptor, final UseActionBeanRequestMetrics metrics) {
+		super();
+		this.sctx = sctx;
+		this.descriptor = descriptor;
+		this.metrics = metrics;
+	}
+
+
+
+	/**
+	 * @return the ActionBean, running its lifecycle if it hasn't run yet
+	 */
+	public synchronized ActionBean get() {
+		if (failure != null) throw failure;
+		if (actionBean == null) {
+			actionBean = StripesUseActionBeanElementProcessor.getExecuted(sctx.getHttpServletRequest(), descriptor.getExecutionKey());
+			if (actionBean != null) return actionBean;
+			try {
+				actionBean = StripesUseActionBeanElementProcessor.execute(sctx, descriptor, metrics);
+			} catch (final TemplateProcessingException e) {
+				failure = e;
+				throw e;
+			} catch (final Exception e) {
+				failure = new TemplateProcessingException("Could not execute ActionBean [" + descriptor.getBeanclass() + "]. Exception: " + e.getClass().getName() + " : " + e.getMessage());
+				throw failure;
+			}
+			StripesUseActionBeanElementProcessor.executed(sctx.getHttpServletRequest(), descriptor.getExecutionKey(), actionBean);
+		}
+		return actionBean;
+	}
+
+	public synchronized boolean isResolved() {
+		return actionBean != null;
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(get());
+	}
+
+}
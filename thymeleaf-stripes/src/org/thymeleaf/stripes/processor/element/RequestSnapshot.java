@@ -0,0 +1,232 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.processor.element;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * <p>
+ *   Request seen by an async <tt>use-action-bean</tt> while its lifecycle runs on another thread.
+ *   Parameters, attributes, locales, paths and content type are copied on the request thread when
+ *   the element is started, and the attributes the lifecycle sets or removes (e.g. the ActionBean
+ *   itself, or its messages) are kept aside until {@link #publish()} applies them to the request,
+ *   back on the request thread. From then on, everything is delegated to the request.
+ * </p>
+ * <p>
+ *   Other methods (headers, session...) are always delegated to the request.
+ * </p>
+ */
+final class RequestSnapshot extends HttpServletRequestWrapper {
+
+	private static final Object REMOVED = new Object();
+
+	private final Parameters parameters;
+	private final Map<String,Object> attributes;
+	private final Map<String,Object> changedAttributes = new LinkedHashMap<String,Object>();
+	private boolean published = false;
+
+
+	/**
+	 * Takes a snapshot of a request, on the request thread.
+	 * 
+	 * @param parameters the request's parameters, locales, paths and content type, shared by all its snapshots
+	 */
+	RequestSnapshot(final HttpServletRequest request, final Parameters parameters) {
+		super(request);
+		this.parameters = parameters;
+		this.attributes = new HashMap<String,Object>();
+		final Enumeration<?> names = request.getAttributeNames();
+		while (names.hasMoreElements()) {
+			final String name = (String) names.nextElement();
+			attributes.put(name, request.getAttribute(name));
+		}
+	}
+
+	/**
+	 * Applies the attributes changed by the lifecycle to the request, on the request thread, and
+	 * stops isolating the request.
+	 */
+	void publish() {
+		if (published) return;
+		published = true;
+		final HttpServletRequest request = (HttpServletRequest) getRequest();
+		for (final Map.Entry<String,Object> entry : changedAttributes.entrySet()) {
+			if (entry.getValue() == REMOVED) {
+				request.removeAttribute(entry.getKey());
+			} else {
+				request.setAttribute(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+
+
+	@Override
+	public Object getAttribute(final String name) {
+		return (published ? super.getAttribute(name) : attributes.get(name));
+	}
+
+	@Override
+	public Enumeration<?> getAttributeNames() {
+		return (published ? super.getAttributeNames() : Collections.enumeration(new ArrayList<String>(attributes.keySet())));
+	}
+
+	@Override
+	public void setAttribute(final String name, final Object value) {
+		if (published) {
+			super.setAttribute(name, value);
+		} else if (value == null) {
+			removeAttribute(name);
+		} else {
+			attributes.put(name, value);
+			changedAttributes.put(name, value);
+		}
+	}
+
+	@Override
+	public void removeAttribute(final String name) {
+		if (published) {
+			super.removeAttribute(name);
+		} else {
+			attributes.remove(name);
+			changedAttributes.put(name, REMOVED);
+		}
+	}
+
+	@Override
+	public String getParameter(final String name) {
+		if (published) return super.getParameter(name);
+		final String[] values = parameters.values.get(name);
+		return (values != null && values.length > 0 ? values[0] : null);
+	}
+
+	@Override
+	public String[] getParameterValues(final String name) {
+		if (published) return super.getParameterValues(name);
+		final String[] values = parameters.values.get(name);
+		return (values != null ? values.clone() : null);
+	}
+
+	@Override
+	public Map<?,?> getParameterMap() {
+		return (published ? super.getParameterMap() : parameters.values);
+	}
+
+	@Override
+	public Enumeration<?> getParameterNames() {
+		return (published ? super.getParameterNames() : Collections.enumeration(parameters.values.keySet()));
+	}
+
+	@Override
+	public Locale getLocale() {
+		return (published ? super.getLocale() : parameters.locale);
+	}
+
+	@Override
+	public Enumeration<?> getLocales() {
+		return (published ? super.getLocales() : Collections.enumeration(parameters.locales));
+	}
+
+	@Override
+	public String getMethod() {
+		return (published ? super.getMethod() : parameters.method);
+	}
+
+	@Override
+	public String getContentType() {
+		return (published ? super.getContentType() : parameters.contentType);
+	}
+
+	@Override
+	public String getContextPath() {
+		return (published ? super.getContextPath() : parameters.contextPath);
+	}
+
+	@Override
+	public String getServletPath() {
+		return (published ? super.getServletPath() : parameters.servletPath);
+	}
+
+	@Override
+	public String getPathInfo() {
+		return (published ? super.getPathInfo() : parameters.pathInfo);
+	}
+
+	@Override
+	public String getRequestURI() {
+		return (published ? super.getRequestURI() : parameters.requestURI);
+	}
+
+
+
+	/**
+	 * Parameters (parsed once), locales, paths and content type of a request, read on the request thread and
+	 * shared by all its snapshots.
+	 */
+	static final class Parameters {
+
+		final Map<String,String[]> values;
+		final Locale locale;
+		final List<Locale> locales;
+		final String method;
+		final String contextPath;
+		final String servletPath;
+		final String pathInfo;
+		final String requestURI;
+		final String contentType;
+
+		Parameters(final HttpServletRequest request) {
+			super();
+			final Map<String,String[]> values = new LinkedHashMap<String,String[]>();
+			final Enumeration<?> names = request.getParameterNames();
+			while (names.hasMoreElements()) {
+				final String name = (String) names.nextElement();
+				values.put(name, request.getParameterValues(name));
+			}
+			this.values = Collections.unmodifiableMap(values);
+			final List<Locale> locales = new ArrayList<Locale>(4);
+			final Enumeration<?> requestLocales = request.getLocales();
+			while (requestLocales.hasMoreElements()) {
+				locales.add((Locale) requestLocales.nextElement());
+			}
+			// Stripes' request wrapper answers the locale picked for the request
+			this.locale = request.getLocale();
+			this.locales = Collections.unmodifiableList(locales);
+			this.method = request.getMethod();
+			this.contextPath = request.getContextPath();
+			this.servletPath = request.getServletPath();
+			this.pathInfo = request.getPathInfo();
+			this.requestURI = request.getRequestURI();
+			this.contentType = request.getContentType();
+		}
+
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.processor.element;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+import net.sourceforge.stripes.config.Configuration;
+import net.sourceforge.stripes.controller.ActionBeanPropertyBinder;
+import net.sourceforge.stripes.controller.BeforeAfterMethodInterceptor;
+import net.sourceforge.stripes.controller.DefaultActionBeanPropertyBinder;
+import net.sourceforge.stripes.controller.DispatcherServlet;
+import net.sourceforge.stripes.controller.Interceptor;
+import net.sourceforge.stripes.controller.LifecycleStage;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.validation.ValidationMetadata;
+import net.sourceforge.stripes.validation.ValidationMetadataProvider;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Parts of a Stripes {@link Configuration} used by every <tt>use-action-bean</tt> execution:
+ * the interceptors of each lifecycle stage, the bootstrap properties and whether binding may be
+ * skipped for a bean class. Read once per configuration (held weakly).
+ */
+final class StripesLifecycleConfiguration {
+
+	private static final Cache<Configuration,StripesLifecycleConfiguration> configurations = CacheBuilder.newBuilder().weakKeys().build();
+
+	private final Map<LifecycleStage,Collection<Interceptor>> interceptors =
+			new EnumMap<LifecycleStage,Collection<Interceptor>>(LifecycleStage.class);
+	private final boolean runCustomValidationWhenErrors;
+	private final ValidationMetadataProvider validationMetadataProvider;
+	// Only Stripes' own interceptor for @Before/@After methods runs around binding
+	private final boolean bindingInterceptedByBeanMethodsOnly;
+	// Stripes' own binder, which does nothing without parameters for the bean
+	private final boolean defaultPropertyBinder;
+	private final Cache<Class<?>,Boolean> requiredFields = CacheBuilder.newBuilder().weakKeys().build();
+	private volatile Boolean currentOffRequestThread = null;
+
+
+	private StripesLifecycleConfiguration(final Configuration config) {
+		super();
+		for (final LifecycleStage stage : LifecycleStage.values()) {
+			interceptors.put(stage, config.getInterceptors(stage));
+		}
+		final String temp = config.getBootstrapPropertyResolver().getProperty(DispatcherServlet.RUN_CUSTOM_VALIDATION_WHEN_ERRORS);
+		this.runCustomValidationWhenErrors = temp != null && Boolean.valueOf(temp).booleanValue();
+		this.validationMetadataProvider = config.getValidationMetadataProvider();
+		boolean beanMethodsOnly = true;
+		for (final Interceptor interceptor : getInterceptors(LifecycleStage.BindingAndValidation)) {
+			beanMethodsOnly &= interceptor.getClass() == BeforeAfterMethodInterceptor.class;
+		}
+		this.bindingInterceptedByBeanMethodsOnly = beanMethodsOnly;
+		final ActionBeanPropertyBinder binder = config.getActionBeanPropertyBinder();
+		this.defaultPropertyBinder = (binder != null && binder.getClass() == DefaultActionBeanPropertyBinder.class);
+	}
+
+
+
+	static StripesLifecycleConfiguration forConfiguration(final Configuration config) {
+		StripesLifecycleConfiguration lifecycle = configurations.getIfPresent(config);
+		if (lifecycle == null) {
+			// Racing threads build equal instances, any of them will do
+			lifecycle = new StripesLifecycleConfiguration(config);
+			configurations.put(config, lifecycle);
+		}
+		return lifecycle;
+	}
+
+	Collection<Interceptor> getInterceptors(final LifecycleStage stage) {
+		return interceptors.get(stage);
+	}
+
+	boolean isRunCustomValidationWhenErrors() {
+		return runCustomValidationWhenErrors;
+	}
+
+	/**
+	 * @return whether binding and validation would do nothing for a bean of the given class if
+	 * the request had no parameters for it: Stripes' own property binder is used, no interceptors
+	 * or <tt>@Before</tt>/<tt>@After</tt> methods run around it and, when validating, no field is
+	 * required
+	 */
+	boolean isBindingSkippable(final Class<?> beanClass, final boolean validate) {
+		if (!defaultPropertyBinder || !bindingInterceptedByBeanMethodsOnly || BindableProperties.forBeanClass(beanClass).hasBindingStageMethods()) return false;
+		return !validate || !hasRequiredFields(beanClass);
+	}
+
+	/**
+	 * @return whether StripesFilter gives this configuration as the current one to threads other
+	 * than the request's, as it does when it's the only one in the application. Stripes' binder,
+	 * type converters and the like look it up there. Checked once, from one of those threads.
+	 */
+	boolean isCurrentOffRequestThread(final Configuration config) {
+		Boolean current = currentOffRequestThread;
+		if (current == null) {
+			current = Boolean.valueOf(StripesFilter.getConfiguration() == config);
+			currentOffRequestThread = current;
+		}
+		return current.booleanValue();
+	}
+
+	private boolean hasRequiredFields(final Class<?> beanClass) {
+		Boolean required = requiredFields.getIfPresent(beanClass);
+		if (required == null) {
+			required = Boolean.FALSE;
+			for (final ValidationMetadata metadata : validationMetadataProvider.getValidationMetadata(beanClass).values()) {
+				if (metadata.required()) {
+					required = Boolean.TRUE;
+					break;
+				}
+			}
+			requiredFields.put(beanClass, required);
+		}
+		return required.booleanValue();
+	}
+
+}
@@ -1,21 +1,12 @@
 package org.thymeleaf.stripes.processor.element;
 
-import java.util.MissingResourceException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
 
 import net.sourceforge.stripes.action.ActionBean;
-import net.sourceforge.stripes.action.ActionBeanContext;
-import net.sourceforge.stripes.action.Resolution;
-import net.sourceforge.stripes.config.Configuration;
-import net.sourceforge.stripes.controller.ActionResolver;
-import net.sourceforge.stripes.controller.DispatcherHelper;
-import net.sourceforge.stripes.controller.DispatcherServlet;
-import net.sourceforge.stripes.controller.ExecutionContext;
-import net.sourceforge.stripes.controller.Interceptor;
-import net.sourceforge.stripes.controller.LifecycleStage;
-import net.sourceforge.stripes.controller.StripesFilter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +16,8 @@ import org.thymeleaf.exceptions.TemplateProcessingException;
 import org.thymeleaf.processor.ProcessorResult;
 import org.thymeleaf.processor.element.AbstractElementProcessor;
 import org.thymeleaf.stripes.context.StripesWebContext;
+import org.thymeleaf.stripes.metrics.IUseActionBeanMetricsSink;
+import org.thymeleaf.stripes.metrics.UseActionBeanRequestMetrics;
 
 /**
  * Mimics Stripes' useActionBean tag
@@ -36,9 +29,37 @@ public final class StripesUseActionBeanElementProcessor extends AbstractElementP
     public static final int ATTR_PRECEDENCE = 100000;
     public static final String ELEMENT_NAME = "use-action-bean";
 
+    /**
+     * Request attribute holding the ActionBeans already executed in the request, by
+     * their execution key
+     */
+    public static final String EXECUTED_BEANS_ATTRIBUTE = StripesUseActionBeanElementProcessor.class.getName() + ".EXECUTED";
+
+
+    private final Executor asyncExecutor;
+    private final IUseActionBeanMetricsSink metricsSink;
+
 
     public StripesUseActionBeanElementProcessor() {
+        this(null);
+    }
+
+    /**
+     * @param asyncExecutor the executor running <tt>async="true"</tt> elements, or null for
+     * the default one (virtual threads where available)
+     */
+    public StripesUseActionBeanElementProcessor(final Executor asyncExecutor) {
+        this(asyncExecutor, null);
+    }
+
+    /**
+     * @param metricsSink the sink receiving the timings of each bean's lifecycle stages, or null
+     * for not timing them
+     */
+    public StripesUseActionBeanElementProcessor(final Executor asyncExecutor, final IUseActionBeanMetricsSink metricsSink) {
         super(ELEMENT_NAME);
+        this.asyncExecutor = asyncExecutor;
+        this.metricsSink = metricsSink;
     }
 
     
@@ -49,110 +70,97 @@ public final class StripesUseActionBeanElementProcessor extends AbstractElementP
 
 	@Override
 	protected ProcessorResult processElement(Arguments arguments, Element element) {
-		final String beanclass = element.getAttributeValue("class");
-		final String event = element.getAttributeValue("event");
-		final String var = element.getAttributeValue("var");
-		final boolean validate = Boolean.valueOf(element.getAttributeValue("validate"));
-		final boolean alwaysExecuteEvent = Boolean.valueOf(element.getAttributeValue("alwaysExecuteEvent"));
-		final boolean executeResolution = Boolean.valueOf(element.getAttributeValue("executeResolution"));
+		final UseActionBeanDescriptor descriptor = UseActionBeanDescriptor.forElement(element);
+		final String beanclass = descriptor.getBeanclass();
+		final String event = descriptor.getEvent();
+		final String var = descriptor.getVar();
 
 		logger.debug("Processing useActionBean on class {} and event {}", beanclass, event);
 
 		final StripesWebContext sctx = (StripesWebContext) arguments.getContext();
-    	// Get the urlBinding from the class
-    	final String binding;
-    	try {
-    		binding = sctx.resolveActionBeanUrlBinding(beanclass);
-    		if (binding == null) throw new MissingResourceException("Resource not found", beanclass, null);
-    	} catch(Exception e) {
-    		throw new TemplateProcessingException("Could not resolve ActionBean class [" + beanclass + "]. Exception: " + e.getClass().getName() + " : " + e.getMessage());
-    	}
-
-        final Configuration config = StripesFilter.getConfiguration();
-        final ActionResolver resolver = StripesFilter.getConfiguration().getActionResolver();
-        final HttpServletRequest request = sctx.getHttpServletRequest();
-        final HttpServletResponse response = sctx.getHttpServletResponse();
-        Resolution resolution = null;
-        ExecutionContext ctx = new ExecutionContext();
-        // Check to see if the action bean already exists
-        ActionBean actionBean = (ActionBean) sctx.getVariables().get(binding);
-        boolean beanNotPresent = actionBean == null;
-        try {
-        	// Lookup the ActionBean if we don't already have it
-            if (beanNotPresent) {
-                ActionBeanContext tempContext = config.getActionBeanContextFactory().getContextInstance(request, response);
-                tempContext.setServletContext(sctx.getServletContext());
-                ctx.setLifecycleStage(LifecycleStage.ActionBeanResolution);
-                ctx.setActionBeanContext(tempContext);
-
-                // Run action bean resolution
-                ctx.setInterceptors(config.getInterceptors(LifecycleStage.ActionBeanResolution));
-                resolution = ctx.wrap( new Interceptor() {
-                    public Resolution intercept(ExecutionContext ec) throws Exception {
-                        ActionBean bean = resolver.getActionBean(ec.getActionBeanContext(), binding);
-                        ec.setActionBean(bean);
-                        return null;
-                    }
-                });
-            } else {
-                ctx.setActionBean(actionBean);
-                ctx.setActionBeanContext(actionBean.getContext());
-            }
-
-            // Then, if and only if an event was specified, run handler resolution
-            if (resolution == null && event != null && (beanNotPresent || alwaysExecuteEvent)) {
-                ctx.setLifecycleStage(LifecycleStage.HandlerResolution);
-                ctx.setInterceptors(config.getInterceptors(LifecycleStage.HandlerResolution));
-                resolution = ctx.wrap( new Interceptor() {
-                    public Resolution intercept(ExecutionContext ec) throws Exception {
-                        ec.setHandler(resolver.getHandler(ec.getActionBean().getClass(), event));
-                        ec.getActionBeanContext().setEventName(event);
-                        return null;
-                    }
-                });
-            }
-
-            // Bind applicable request parameters to the ActionBean
-            if (resolution == null && (beanNotPresent || validate)) {
-                resolution = DispatcherHelper.doBindingAndValidation(ctx, validate);
-            }
-
-            // Run custom validations if we're validating
-            if (resolution == null && validate) {
-                String temp =  config.getBootstrapPropertyResolver().getProperty(DispatcherServlet.RUN_CUSTOM_VALIDATION_WHEN_ERRORS);
-                boolean validateWhenErrors = temp != null && Boolean.valueOf(temp);
-
-                resolution = DispatcherHelper.doCustomValidation(ctx, validateWhenErrors);
-            }
-
-            // Fill in any validation errors if they exist
-            if (resolution == null && validate) {
-                resolution = DispatcherHelper.handleValidationErrors(ctx);
-            }
-
-            // And (again) if an event was supplied, then run the handler
-            if (resolution == null && event != null && (beanNotPresent || alwaysExecuteEvent)) {
-                resolution = DispatcherHelper.invokeEventHandler(ctx);
-            }
-
-            DispatcherHelper.fillInValidationErrors(ctx);  // just in case!
-
-            if (resolution != null && executeResolution) {
-                DispatcherHelper.executeResolution(ctx, resolution);
-            }
-            
-            // If a name was specified, bind the ActionBean into context variables
-            if (var != null) {
-            	logger.debug("Setting action bean [{}] to context variable [{}]", ctx.getActionBean(), var);
-            	sctx.setVariable(var, ctx.getActionBean());
-            }
-        }
-        catch(Exception e) {
-    		throw new TemplateProcessingException("Could not execute ActionBean [" + beanclass + "]. Exception: " + e.getClass().getName() + " : " + e.getMessage());
-        }
+		final HttpServletRequest request = sctx.getHttpServletRequest();
+
+		// The same bean, event and flags run only once per request (e.g. a layout and its fragments
+		// declaring the same bean), later occurrences just get the bean
+		final String executionKey = descriptor.getExecutionKey();
+		final UseActionBeanRequestMetrics metrics = UseActionBeanRequestMetrics.forRequest(request, metricsSink);
+		ActionBean actionBean = getExecuted(request, executionKey);
+		if (actionBean != null) {
+			logger.debug("ActionBean {} with event {} already executed in this request", beanclass, event);
+		} else if (descriptor.isLazy() && var != null) {
+			// Nothing runs until an expression reads the variable
+			logger.debug("Setting lazy action bean [{}] to context variable [{}]", beanclass, var);
+			sctx.setVariable(var, new LazyActionBean(sctx, descriptor, metrics));
+			element.getParent().extractChild(element);
+			return ProcessorResult.OK;
+		} else {
+			try {
+				if (descriptor.isAsync()) {
+					// Started along with the async elements sure to be processed after it
+					actionBean = ActionBeanPrefetch.forRequest(request, getAsyncExecutor(), metrics).get(arguments, element);
+				} else {
+					actionBean = execute(sctx, descriptor, metrics);
+				}
+			} catch (TemplateProcessingException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new TemplateProcessingException("Could not execute ActionBean [" + beanclass + "]. Exception: " + e.getClass().getName() + " : " + e.getMessage());
+			}
+			if (actionBean != null) {
+				executed(request, executionKey, actionBean);
+			}
+		}
+
+		// If a name was specified, bind the ActionBean into context variables
+		if (var != null) {
+			logger.debug("Setting action bean [{}] to context variable [{}]", actionBean, var);
+			sctx.setVariable(var, actionBean);
+		}
 		// Delete the tag
 		element.getParent().extractChild(element);
-      	return ProcessorResult.OK;
+		return ProcessorResult.OK;
+	}
+
+	/**
+	 * Runs the Stripes lifecycle for an ActionBean, as Stripes' useActionBean tag does.
+	 * 
+	 * @param metrics the request's metrics, null if they're not being collected
+	 * @return the ActionBean
+	 */
+	static ActionBean execute(final StripesWebContext sctx, final UseActionBeanDescriptor descriptor,
+			final UseActionBeanRequestMetrics metrics) throws Exception {
+		final UseActionBeanExecution execution = UseActionBeanExecution.prepare(sctx, descriptor, sctx.getHttpServletRequest(), metrics);
+		execution.run();
+		return execution.complete();
+	}
+
+	private Executor getAsyncExecutor() {
+		return (asyncExecutor != null ? asyncExecutor : ActionBeanPrefetch.defaultExecutor());
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private static Map<String,ActionBean> getExecutedBeans(final HttpServletRequest request) {
+		Map<String,ActionBean> executed = (Map<String,ActionBean>) request.getAttribute(EXECUTED_BEANS_ATTRIBUTE);
+		if (executed == null) {
+			executed = new HashMap<String,ActionBean>(4);
+			request.setAttribute(EXECUTED_BEANS_ATTRIBUTE, executed);
+		}
+		return executed;
+	}
+
+	/**
+	 * @param executionKey the element's execution key, null if it runs every time
+	 * @return the ActionBean already executed in the request with the given execution key, or null
+	 */
+	static ActionBean getExecuted(final HttpServletRequest request, final String executionKey) {
+		if (executionKey == null) return null;
+		return getExecutedBeans(request).get(executionKey);
+	}
+
+	static void executed(final HttpServletRequest request, final String executionKey, final ActionBean actionBean) {
+		if (executionKey == null) return;
+		getExecutedBeans(request).put(executionKey, actionBean);
 	}
 
-}
\ No newline at end of file
+}
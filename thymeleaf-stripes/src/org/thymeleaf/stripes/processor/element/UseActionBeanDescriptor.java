@@ -0,0 +1,147 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.processor.element;
+
+import java.util.Arrays;
+
+import org.thymeleaf.dom.Attribute;
+import org.thymeleaf.dom.Element;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * <p>
+ *   Attributes of a <tt>use-action-bean</tt> element, read and parsed once per parsed template.
+ * </p>
+ * <p>
+ *   Elements processed are clones of the cached template, whose node properties don't make it back
+ *   to it, but clones share the {@link Attribute} objects of the parsed element. Descriptors are
+ *   kept (weakly) against the <tt>class</tt> attribute, and reused while none of the element's
+ *   attributes has been replaced (e.g. by <tt>th:attr</tt>).
+ * </p>
+ */
+final class UseActionBeanDescriptor {
+
+	private static final Cache<Attribute,UseActionBeanDescriptor> descriptors = CacheBuilder.newBuilder().weakKeys().build();
+
+	private final Attribute[] attributes;
+
+	private final String beanclass;
+	private final String event;
+	private final String var;
+	private final boolean validate;
+	private final boolean alwaysExecuteEvent;
+	private final boolean executeResolution;
+	private final boolean lazy;
+	private final boolean async;
+	private final String executionKey;
+
+
+	private UseActionBeanDescriptor(final Element element) {
+		super();
+		this.attributes = Arrays.copyOf(element.unsafeGetAttributes(), element.numAttributes());
+		this.beanclass = element.getAttributeValue("class");
+		this.event = element.getAttributeValue("event");
+		this.var = element.getAttributeValue("var");
+		this.validate = Boolean.valueOf(element.getAttributeValue("validate")).booleanValue();
+		this.alwaysExecuteEvent = Boolean.valueOf(element.getAttributeValue("alwaysExecuteEvent")).booleanValue();
+		this.executeResolution = Boolean.valueOf(element.getAttributeValue("executeResolution")).booleanValue();
+		// Executing the resolution needs to happen right away, in the request thread
+		this.lazy = !executeResolution && Boolean.valueOf(element.getAttributeValue("lazy")).booleanValue();
+		this.async = !executeResolution && Boolean.valueOf(element.getAttributeValue("async")).booleanValue();
+		// Elements always executing their event or their resolution run every time, as Stripes' tag does
+		this.executionKey = (alwaysExecuteEvent || executeResolution ? null :
+				new StringBuilder((beanclass == null ? 0 : beanclass.length()) + 24).append(beanclass).append('|').append(event)
+						.append('|').append(validate ? 'v' : '-').toString());
+	}
+
+
+
+	static UseActionBeanDescriptor forElement(final Element element) {
+		final Attribute classAttribute = element.getAttributeFromNormalizedName("class");
+		if (classAttribute == null) return new UseActionBeanDescriptor(element);
+		final UseActionBeanDescriptor cached = descriptors.getIfPresent(classAttribute);
+		if (cached != null && cached.describes(element)) return cached;
+		final UseActionBeanDescriptor descriptor = new UseActionBeanDescriptor(element);
+		descriptors.put(classAttribute, descriptor);
+		return descriptor;
+	}
+
+	private boolean describes(final Element element) {
+		if (element.numAttributes() != attributes.length) return false;
+		final Attribute[] current = element.unsafeGetAttributes();
+		for (int i = 0; i < attributes.length; i++) {
+			if (current[i] != attributes[i]) return false;
+		}
+		return true;
+	}
+
+
+
+	String getBeanclass() {
+		return beanclass;
+	}
+
+	String getEvent() {
+		return event;
+	}
+
+	String getVar() {
+		return var;
+	}
+
+	boolean isValidate() {
+		return validate;
+	}
+
+	boolean isAlwaysExecuteEvent() {
+		return alwaysExecuteEvent;
+	}
+
+	boolean isExecuteResolution() {
+		return executeResolution;
+	}
+
+	/**
+	 * Elements marked <tt>lazy="true"</tt> put a {@link LazyActionBean} in their variable instead
+	 * of the bean.
+	 */
+	boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * Elements marked <tt>async="true"</tt> are run concurrently with the rest of the async elements
+	 * of the document.
+	 */
+	boolean isAsync() {
+		return async;
+	}
+
+	/**
+	 * @return the key of the bean, event and flags, which run only once per request, or null if the
+	 * element runs every time it's processed (<tt>alwaysExecuteEvent</tt> or <tt>executeResolution</tt>)
+	 */
+	String getExecutionKey() {
+		return executionKey;
+	}
+
+}
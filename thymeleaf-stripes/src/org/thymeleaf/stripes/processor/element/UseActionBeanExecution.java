@@ -0,0 +1,427 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.processor.element;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.MissingResourceException;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.DontBind;
+import net.sourceforge.stripes.action.DontValidate;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.config.Configuration;
+import net.sourceforge.stripes.controller.ActionResolver;
+import net.sourceforge.stripes.controller.DispatcherHelper;
+import net.sourceforge.stripes.controller.ExecutionContext;
+import net.sourceforge.stripes.controller.Interceptor;
+import net.sourceforge.stripes.controller.LifecycleStage;
+import net.sourceforge.stripes.util.HtmlUtil;
+import net.sourceforge.stripes.validation.ValidationError;
+import net.sourceforge.stripes.validation.ValidationErrorHandler;
+import net.sourceforge.stripes.validation.ValidationErrors;
+import net.sourceforge.stripes.validation.ValidationMethod;
+import net.sourceforge.stripes.validation.ValidationState;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.thymeleaf.exceptions.TemplateProcessingException;
+import org.thymeleaf.stripes.context.StripesWebContext;
+import org.thymeleaf.stripes.metrics.UseActionBeanRequestMetrics;
+import org.thymeleaf.stripes.metrics.UseActionBeanTiming;
+
+/**
+ * <p>
+ *   One run of the Stripes lifecycle for a <tt>use-action-bean</tt> element, as Stripes' useActionBean
+ *   tag does. It's prepared on the request thread, where the url binding and the bean already in
+ *   the context are looked up, then {@link #run()} goes through the lifecycle up to the event handler
+ *   and {@link #complete()} executes the resolution.
+ * </p>
+ * <p>
+ *   {@link #run()} only sees the request it was prepared with, so it may happen on another thread
+ *   when that's a {@link RequestSnapshot} (see {@link ActionBeanPrefetch}). The other steps happen
+ *   on the request thread.
+ * </p>
+ * <p>
+ *   The lifecycle stages are those of Stripes' <tt>DispatcherHelper</tt>, run with the configuration
+ *   the execution was prepared with instead of the one <tt>StripesFilter</tt> sets for the request
+ *   thread.
+ * </p>
+ */
+final class UseActionBeanExecution {
+
+	private final static Logger logger = LoggerFactory.getLogger(UseActionBeanExecution.class);
+
+	private final UseActionBeanDescriptor descriptor;
+	private final Configuration config;
+	private final HttpServletRequest request;
+	private final HttpServletResponse response;
+	private final ServletContext servletContext;
+	private final String binding;
+	private ActionBean existingBean;
+	private final UseActionBeanRequestMetrics metrics;
+	private final UseActionBeanTiming timing;
+
+	private final ExecutionContext ctx = new ExecutionContext();
+	private Resolution resolution = null;
+	// Lifecycle stage running and when the previous one ended, if timed
+	private LifecycleStage stage = null;
+	private long mark = 0L;
+	private boolean ended = false;
+
+
+	private UseActionBeanExecution(final UseActionBeanDescriptor descriptor, final Configuration config,
+			final HttpServletRequest request, final HttpServletResponse response, final ServletContext servletContext,
+			final String binding, final ActionBean existingBean, final UseActionBeanRequestMetrics metrics,
+			final UseActionBeanTiming timing) {
+		super();
+		this.descriptor = descriptor;
+		this.config = config;
+		this.request = request;
+		this.response = response;
+		this.servletContext = servletContext;
+		this.binding = binding;
+		this.existingBean = existingBean;
+		this.metrics = metrics;
+		this.timing = timing;
+	}
+
+	/**
+	 * Prepares an execution on the request thread.
+	 * 
+	 * @param request the request the lifecycle will see, the context's one or a snapshot of it
+	 * @param metrics the request's metrics, null if they're not being collected
+	 */
+	static UseActionBeanExecution prepare(final StripesWebContext sctx, final UseActionBeanDescriptor descriptor,
+			final HttpServletRequest request, final UseActionBeanRequestMetrics metrics) {
+		final String beanclass = descriptor.getBeanclass();
+		final UseActionBeanTiming timing = (metrics != null ? metrics.start(beanclass, descriptor.getEvent()) : null);
+		final long mark = (timing != null ? System.nanoTime() : 0L);
+		// Get the urlBinding from the class
+		final String binding;
+		try {
+			binding = sctx.resolveActionBeanUrlBinding(beanclass);
+			if (binding == null) throw new MissingResourceException("Resource not found", beanclass, null);
+		} catch(Exception e) {
+			if (timing != null) {
+				timing.stage(LifecycleStage.ActionBeanResolution, mark);
+				metrics.completed(timing, true);
+			}
+			throw new TemplateProcessingException("Could not resolve ActionBean class [" + beanclass + "]. Exception: " + e.getClass().getName() + " : " + e.getMessage());
+		}
+		if (timing != null) timing.stage(LifecycleStage.ActionBeanResolution, mark);
+		// Check to see if the action bean already exists
+		final ActionBean existingBean = (ActionBean) sctx.getVariables().get(binding);
+		return new UseActionBeanExecution(descriptor, sctx.getStripesConfiguration(), request, sctx.getHttpServletResponse(),
+				sctx.getServletContext(), binding, existingBean, metrics, timing);
+	}
+
+
+
+	Configuration getConfiguration() {
+		return config;
+	}
+
+	/**
+	 * Runs the lifecycle up to the event handler on the bean an execution run before resolved, as
+	 * if it had been in the context already (e.g. an async element with another event of the same
+	 * bean). If it fails, the execution is over.
+	 * 
+	 * @param actionBean the bean resolved before, or null
+	 */
+	void runOn(final ActionBean actionBean) throws Exception {
+		if (existingBean == null) existingBean = actionBean;
+		run();
+	}
+
+	/**
+	 * @return the ActionBean resolved so far, or null
+	 */
+	ActionBean getActionBean() {
+		return ctx.getActionBean();
+	}
+
+	/**
+	 * Runs the lifecycle up to the event handler. If it fails, the execution is over.
+	 */
+	void run() throws Exception {
+		boolean failed = true;
+		try {
+			if (timing != null) mark = System.nanoTime();
+			runStages();
+			failed = false;
+		} finally {
+			if (failed) end(true);
+		}
+	}
+
+	private void runStages() throws Exception {
+		final String event = descriptor.getEvent();
+		final boolean validate = descriptor.isValidate();
+		final boolean alwaysExecuteEvent = descriptor.isAlwaysExecuteEvent();
+		final StripesLifecycleConfiguration lifecycle = StripesLifecycleConfiguration.forConfiguration(config);
+		final ActionResolver resolver = config.getActionResolver();
+		boolean beanNotPresent = existingBean == null;
+		// Lookup the ActionBean if we don't already have it
+		if (beanNotPresent) {
+			stage = LifecycleStage.ActionBeanResolution;
+			ActionBeanContext tempContext = config.getActionBeanContextFactory().getContextInstance(request, response);
+			tempContext.setServletContext(servletContext);
+			ctx.setLifecycleStage(LifecycleStage.ActionBeanResolution);
+			ctx.setActionBeanContext(tempContext);
+
+			// Run action bean resolution
+			ctx.setInterceptors(lifecycle.getInterceptors(LifecycleStage.ActionBeanResolution));
+			resolution = ctx.wrap( new Interceptor() {
+				public Resolution intercept(ExecutionContext ec) throws Exception {
+					ActionBean bean = resolver.getActionBean(ec.getActionBeanContext(), binding);
+					ec.setActionBean(bean);
+					return null;
+				}
+			});
+			stageEnded();
+		} else {
+			ctx.setActionBean(existingBean);
+			ctx.setActionBeanContext(existingBean.getContext());
+		}
+
+		// Then, if and only if an event was specified, run handler resolution
+		if (resolution == null && event != null && (beanNotPresent || alwaysExecuteEvent)) {
+			stage = LifecycleStage.HandlerResolution;
+			ctx.setLifecycleStage(LifecycleStage.HandlerResolution);
+			ctx.setInterceptors(lifecycle.getInterceptors(LifecycleStage.HandlerResolution));
+			resolution = ctx.wrap( new Interceptor() {
+				public Resolution intercept(ExecutionContext ec) throws Exception {
+					ec.setHandler(resolver.getHandler(ec.getActionBean().getClass(), event));
+					ec.getActionBeanContext().setEventName(event);
+					return null;
+				}
+			});
+			stageEnded();
+		}
+
+		// Bind applicable request parameters to the ActionBean
+		if (resolution == null && (beanNotPresent || validate)) {
+			final Class<?> beanClass = ctx.getActionBean().getClass();
+			if (lifecycle.isBindingSkippable(beanClass, validate) && !BindableProperties.forBeanClass(beanClass).isAnyBindable(request)) {
+				// Nothing in the request for this bean (e.g. a widget on a GET page)
+				logger.debug("No request parameters to bind to {}, skipping binding and validation", descriptor.getBeanclass());
+			} else {
+				stage = LifecycleStage.BindingAndValidation;
+				resolution = doBindingAndValidation(lifecycle, validate);
+				stageEnded();
+			}
+		}
+
+		// Run custom validations if we're validating
+		if (resolution == null && validate) {
+			stage = LifecycleStage.CustomValidation;
+			resolution = doCustomValidation(lifecycle, lifecycle.isRunCustomValidationWhenErrors());
+			stageEnded();
+		}
+
+		// Fill in any validation errors if they exist
+		if (resolution == null && validate) {
+			stage = LifecycleStage.CustomValidation;
+			resolution = handleValidationErrors();
+			stageEnded();
+		}
+
+		// And (again) if an event was supplied, then run the handler
+		if (resolution == null && event != null && (beanNotPresent || alwaysExecuteEvent)) {
+			stage = LifecycleStage.EventHandling;
+			resolution = invokeEventHandler(lifecycle);
+			stageEnded();
+		}
+
+		fillInValidationErrors();  // just in case!
+	}
+
+	private Resolution doBindingAndValidation(final StripesLifecycleConfiguration lifecycle, final boolean validate) throws Exception {
+		// Bind the value to the bean - this includes performing field level validation
+		final Method handler = ctx.getHandler();
+		final boolean doBind = handler == null || handler.getAnnotation(DontBind.class) == null;
+		final boolean doValidate = doBind && validate && (handler == null || handler.getAnnotation(DontValidate.class) == null);
+
+		ctx.setLifecycleStage(LifecycleStage.BindingAndValidation);
+		ctx.setInterceptors(lifecycle.getInterceptors(LifecycleStage.BindingAndValidation));
+		return ctx.wrap( new Interceptor() {
+			public Resolution intercept(ExecutionContext ec) throws Exception {
+				if (doBind) {
+					config.getActionBeanPropertyBinder().bind(ec.getActionBean(), ec.getActionBeanContext(), doValidate);
+					fillInValidationErrors();
+				}
+				return null;
+			}
+		});
+	}
+
+	private Resolution doCustomValidation(final StripesLifecycleConfiguration lifecycle, final boolean alwaysInvokeValidate) throws Exception {
+		final ValidationErrors errors = ctx.getActionBeanContext().getValidationErrors();
+		final ActionBean bean = ctx.getActionBean();
+		final Method handler = ctx.getHandler();
+		final boolean doBind = handler != null && handler.getAnnotation(DontBind.class) == null;
+		final boolean doValidate = doBind && handler.getAnnotation(DontValidate.class) == null;
+		if (!doValidate) return null;
+
+		ctx.setLifecycleStage(LifecycleStage.CustomValidation);
+		ctx.setInterceptors(lifecycle.getInterceptors(LifecycleStage.CustomValidation));
+		return ctx.wrap( new Interceptor() {
+			public Resolution intercept(ExecutionContext ec) throws Exception {
+				// Run any of the annotated validation methods
+				for (final Method validation : DispatcherHelper.findCustomValidationMethods(bean.getClass())) {
+					final ValidationMethod ann = validation.getAnnotation(ValidationMethod.class);
+					final boolean run = (ann.when() == ValidationState.ALWAYS)
+							|| (ann.when() == ValidationState.DEFAULT && alwaysInvokeValidate)
+							|| errors.isEmpty();
+					if (run && DispatcherHelper.applies(ann, ec.getActionBeanContext().getEventName())) {
+						final Class<?>[] args = validation.getParameterTypes();
+						if (args.length == 1 && args[0].equals(ValidationErrors.class)) {
+							validation.invoke(bean, errors);
+						} else {
+							validation.invoke(bean);
+						}
+					}
+				}
+				fillInValidationErrors();
+				return null;
+			}
+		});
+	}
+
+	private Resolution handleValidationErrors() throws Exception {
+		final DontValidate annotation = ctx.getHandler().getAnnotation(DontValidate.class);
+		final boolean doValidate = annotation == null || !annotation.ignoreBindingErrors();
+
+		// If we have errors, add the action path to them
+		fillInValidationErrors();
+
+		Resolution errorResolution = null;
+		if (doValidate) {
+			final ActionBean bean = ctx.getActionBean();
+			final ActionBeanContext context = ctx.getActionBeanContext();
+			final ValidationErrors errors = context.getValidationErrors();
+			// Now if we have errors and the bean wants to handle them...
+			if (errors.size() > 0 && bean instanceof ValidationErrorHandler) {
+				errorResolution = ((ValidationErrorHandler) bean).handleValidationErrors(errors);
+				fillInValidationErrors();
+			}
+			// If there are still errors see if we need to lookup the resolution
+			if (errors.size() > 0 && errorResolution == null) {
+				DispatcherHelper.logValidationErrors(context);
+				errorResolution = context.getSourcePageResolution();
+			}
+		}
+		return errorResolution;
+	}
+
+	private void fillInValidationErrors() {
+		final ValidationErrors errors = ctx.getActionBeanContext().getValidationErrors();
+		if (errors.size() == 0) return;
+		final Class<? extends ActionBean> beanClass = ctx.getActionBean().getClass();
+		final String formAction = config.getActionResolver().getUrlBinding(beanClass);
+		final HttpServletRequest errorsRequest = ctx.getActionBeanContext().getRequest();
+		for (final Map.Entry<String,List<ValidationError>> entry : errors.entrySet()) {
+			for (final ValidationError error : entry.getValue()) {
+				// Make sure we process each error only once, no matter how often we're called
+				if (error.getActionPath() == null) {
+					error.setActionPath(formAction);
+					error.setBeanclass(beanClass);
+					// If the value isn't set, set it, otherwise encode the one that's there
+					if (error.getFieldValue() == null) {
+						error.setFieldValue(HtmlUtil.encode(errorsRequest.getParameter(entry.getKey())));
+					} else {
+						error.setFieldValue(HtmlUtil.encode(error.getFieldValue()));
+					}
+				}
+			}
+		}
+	}
+
+	private Resolution invokeEventHandler(final StripesLifecycleConfiguration lifecycle) throws Exception {
+		final Method handler = ctx.getHandler();
+		final ActionBean bean = ctx.getActionBean();
+
+		// Finally execute the handler method!
+		ctx.setLifecycleStage(LifecycleStage.EventHandling);
+		ctx.setInterceptors(lifecycle.getInterceptors(LifecycleStage.EventHandling));
+		return ctx.wrap( new Interceptor() {
+			public Resolution intercept(ExecutionContext ec) throws Exception {
+				final Object returnValue = handler.invoke(bean);
+				fillInValidationErrors();
+				if (returnValue instanceof Resolution) {
+					ec.setResolutionFromHandler(true);
+					return (Resolution) returnValue;
+				} else if (returnValue != null) {
+					logger.warn("Expected handler method {} on class {} to return a Resolution. Instead it returned: {}",
+							handler.getName(), bean.getClass().getSimpleName(), returnValue);
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Executes the resolution, if any and if asked to, on the request thread.
+	 * 
+	 * @return the ActionBean
+	 */
+	ActionBean complete() throws Exception {
+		boolean failed = true;
+		try {
+			if (resolution != null && descriptor.isExecuteResolution()) {
+				stage = LifecycleStage.ResolutionExecution;
+				DispatcherHelper.executeResolution(ctx, resolution);
+				stageEnded();
+			}
+			failed = false;
+			return ctx.getActionBean();
+		} finally {
+			end(failed);
+		}
+	}
+
+	/**
+	 * Ends an execution that won't be completed, e.g. because it was cancelled.
+	 */
+	void abandon() {
+		end(true);
+	}
+
+	private void stageEnded() {
+		if (timing != null) mark = timing.stage(stage, mark);
+		stage = null;
+	}
+
+	private void end(final boolean failed) {
+		if (ended) return;
+		// A stage that threw still took its time
+		if (stage != null) stageEnded();
+		ended = true;
+		if (timing != null) metrics.completed(timing, failed);
+	}
+
+}
@@ -0,0 +1,279 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.stripes.action.ActionBean;
+
+/**
+ * <p>Binary snapshot of a warmed {@link UrlBindingRegistry}: class name to url binding, base url
+ * to compiled {@link UrlBindingPlan} and ActionBean class to encrypted properties. It's written
+ * after a warm up and read back when the registry is created at the next start.</p>
+ * 
+ * <p>Snapshots carry a fingerprint of the ActionBean classes (names and bytecode, including
+ * their superclasses) and of the ActionResolver, and one that doesn't match the running
+ * application is discarded.</p>
+ */
+final class LinkTableSnapshot {
+
+	private static final int MAGIC = 0x544C5453; // "TLTS"
+	private static final int VERSION = 1;
+
+	final Map<String,String> bindings;
+	final Map<String,UrlBindingPlan> plans;
+	final Map<Class<? extends ActionBean>,Set<String>> encryptedProperties;
+
+
+	private LinkTableSnapshot(Map<String,String> bindings, Map<String,UrlBindingPlan> plans, Map<Class<? extends ActionBean>,Set<String>> encryptedProperties) {
+		this.bindings = bindings;
+		this.plans = plans;
+		this.encryptedProperties = encryptedProperties;
+	}
+
+
+
+	/**
+	 * Computes the fingerprint of a set of ActionBean classes as resolved by an ActionResolver.
+	 */
+	static String fingerprint(Collection<Class<? extends ActionBean>> beanClasses, Class<?> resolverClass) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 is not available", e);
+		}
+		digest.update(resolverClass.getName().getBytes("UTF-8"));
+		final List<Class<?>> sorted = new ArrayList<Class<?>>(beanClasses);
+		Collections.sort(sorted, new Comparator<Class<?>>() {
+			public int compare(Class<?> a, Class<?> b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		final byte[] buffer = new byte[8192];
+		for (Class<?> beanClass : sorted) {
+			for (Class<?> type = beanClass; type != null && type != Object.class; type = type.getSuperclass()) {
+				digest.update(type.getName().getBytes("UTF-8"));
+				final ClassLoader loader = (type.getClassLoader() != null ? type.getClassLoader() : ClassLoader.getSystemClassLoader());
+				final InputStream in = loader.getResourceAsStream(type.getName().replace('.', '/') + ".class");
+				if (in == null) continue;
+				try {
+					for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+						digest.update(buffer, 0, read);
+					}
+				} finally {
+					in.close();
+				}
+			}
+		}
+		final StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+
+
+	/**
+	 * Reads a snapshot.
+	 * 
+	 * @param file the snapshot file
+	 * @param fingerprint the fingerprint of the running application
+	 * @param beanClasses the running ActionBean classes, by name
+	 * @return the snapshot, or null if there's none or it's stale
+	 * @throws IOException if the file can't be read or is corrupt
+	 */
+	static LinkTableSnapshot read(File file, String fingerprint, Map<String,Class<? extends ActionBean>> beanClasses) throws IOException {
+		if (!file.isFile()) return null;
+		// Every entry takes at least a byte, so no count can be larger than the file
+		final long length = file.length();
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !fingerprint.equals(in.readUTF())) return null;
+
+			final List<Set<String>> propertySets = new ArrayList<Set<String>>();
+			int count = readCount(in, length);
+			for (int i = 0; i < count; i++) {
+				final int size = readCount(in, length);
+				final Set<String> names = new HashSet<String>(size * 2);
+				for (int j = 0; j < size; j++) names.add(in.readUTF());
+				propertySets.add(names.isEmpty() ? Collections.<String>emptySet() : Collections.unmodifiableSet(names));
+			}
+
+			final Map<Class<? extends ActionBean>,Set<String>> encryptedProperties = new HashMap<Class<? extends ActionBean>,Set<String>>();
+			count = readCount(in, length);
+			for (int i = 0; i < count; i++) {
+				final Class<? extends ActionBean> beanClass = beanClasses.get(in.readUTF());
+				final Set<String> names = propertySets.get(readIndex(in, propertySets.size()));
+				if (beanClass == null) return null;
+				encryptedProperties.put(beanClass, names);
+			}
+
+			final Map<String,String> bindings = new HashMap<String,String>();
+			count = readCount(in, length);
+			for (int i = 0; i < count; i++) {
+				bindings.put(in.readUTF(), in.readUTF());
+			}
+
+			final Map<String,UrlBindingPlan> plans = new HashMap<String,UrlBindingPlan>();
+			count = readCount(in, length);
+			for (int i = 0; i < count; i++) {
+				final String baseUrl = in.readUTF();
+				final String base = readNullable(in);
+				final int size = readCount(in, length);
+				final String[] literals = new String[size];
+				final String[] names = new String[size];
+				final String[] defaultValues = new String[size];
+				final boolean[] encrypted = new boolean[size];
+				for (int j = 0; j < size; j++) {
+					literals[j] = readNullable(in);
+					names[j] = in.readUTF();
+					defaultValues[j] = readNullable(in);
+					encrypted[j] = in.readBoolean();
+				}
+				final String trailingLiteral = readNullable(in);
+				final String suffix = readNullable(in);
+				final Set<String> properties = propertySets.get(readIndex(in, propertySets.size()));
+				plans.put(baseUrl, (base == null && size == 0 && properties.isEmpty() ?
+						UrlBindingPlan.PASSTHROUGH :
+						new UrlBindingPlan(base, literals, names, defaultValues, encrypted, trailingLiteral, suffix, properties)));
+			}
+			if (in.read() != -1) throw new IOException("Corrupt link table snapshot: unexpected data at the end");
+			return new LinkTableSnapshot(bindings, plans, encryptedProperties);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a snapshot, replacing the previous one only once it's complete.
+	 */
+	static void write(File file, String fingerprint, Map<String,String> bindings, Map<String,UrlBindingPlan> plans, Map<Class<? extends ActionBean>,Set<String>> encryptedProperties) throws IOException {
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+			throw new IOException("Cannot create directory " + parent);
+		}
+		final File temp = new File(file.getPath() + ".tmp");
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(fingerprint);
+
+			// Sets of encrypted properties are shared by plans of the same class, so they're written once
+			final Map<Set<String>,Integer> propertySets = new IdentityHashMap<Set<String>,Integer>();
+			final List<Set<String>> sets = new ArrayList<Set<String>>();
+			for (Set<String> names : encryptedProperties.values()) index(names, propertySets, sets);
+			for (UrlBindingPlan plan : plans.values()) index(plan.encryptedProperties, propertySets, sets);
+			out.writeInt(sets.size());
+			for (Set<String> names : sets) {
+				out.writeInt(names.size());
+				for (String name : names) out.writeUTF(name);
+			}
+
+			out.writeInt(encryptedProperties.size());
+			for (Map.Entry<Class<? extends ActionBean>,Set<String>> entry : encryptedProperties.entrySet()) {
+				out.writeUTF(entry.getKey().getName());
+				out.writeInt(propertySets.get(entry.getValue()).intValue());
+			}
+
+			out.writeInt(bindings.size());
+			for (Map.Entry<String,String> entry : bindings.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue());
+			}
+
+			out.writeInt(plans.size());
+			for (Map.Entry<String,UrlBindingPlan> entry : plans.entrySet()) {
+				final UrlBindingPlan plan = entry.getValue();
+				out.writeUTF(entry.getKey());
+				writeNullable(out, plan.base);
+				out.writeInt(plan.size());
+				for (int i = 0; i < plan.size(); i++) {
+					writeNullable(out, plan.literals[i]);
+					out.writeUTF(plan.names[i]);
+					writeNullable(out, plan.defaultValues[i]);
+					out.writeBoolean(plan.encrypted[i]);
+				}
+				writeNullable(out, plan.trailingLiteral);
+				writeNullable(out, plan.suffix);
+				out.writeInt(propertySets.get(plan.encryptedProperties).intValue());
+			}
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			// Some platforms won't rename over an existing file
+			if (!file.delete() || !temp.renameTo(file)) {
+				temp.delete();
+				throw new IOException("Cannot replace " + file);
+			}
+		}
+	}
+
+	private static void index(Set<String> names, Map<Set<String>,Integer> propertySets, List<Set<String>> sets) {
+		if (propertySets.containsKey(names)) return;
+		propertySets.put(names, Integer.valueOf(sets.size()));
+		sets.add(names);
+	}
+
+	private static int readCount(DataInputStream in, long length) throws IOException {
+		final int count = in.readInt();
+		if (count < 0 || count > length) throw new IOException("Corrupt link table snapshot: invalid count " + count);
+		return count;
+	}
+
+	private static int readIndex(DataInputStream in, int size) throws IOException {
+		final int index = in.readInt();
+		if (index < 0 || index >= size) throw new IOException("Corrupt link table snapshot: invalid index " + index);
+		return index;
+	}
+
+	private static String readNullable(DataInputStream in) throws IOException {
+		return (in.readBoolean() ? in.readUTF() : null);
+	}
+
+	private static void writeNullable(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) out.writeUTF(value);
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import net.sourceforge.stripes.controller.StripesConstants;
+import net.sourceforge.stripes.controller.UrlBindingParameter;
+
+/**
+ * <p>Reusable link to an ActionBean (and optionally one of its events) that renders many
+ * parameter sets, e.g. the rows of a table or the pages of a listing.</p>
+ * 
+ * <p>The url binding, its compiled plan and the context path prefix are resolved once, when the
+ * template is created, and a single {@link UrlBuilder} is reused for every link. Like the
+ * context it's created from, a template is meant to be used by a single thread.</p>
+ */
+public final class LinkTemplate {
+
+	private final String baseUrl;
+	private final String event;
+	private final String eventParameter;
+	private final String prefix;
+	private final UrlBindingPlan plan;
+	private final UrlBuilder builder;
+	private final Locale locale;
+
+
+	/**
+	 * @param registry the url binding registry of the application
+	 * @param locale the locale to use when formatting parameters
+	 * @param baseUrl the url binding of the ActionBean
+	 * @param event the event to link to, may be null
+	 * @param contextPath the context path to prepend to every link
+	 */
+	public LinkTemplate(UrlBindingRegistry registry, Locale locale, String baseUrl, String event, String contextPath) {
+		super();
+		this.baseUrl = baseUrl;
+		this.event = event;
+		this.locale = locale;
+		this.plan = registry.getUrlBindingPlan(baseUrl);
+		this.builder = new UrlBuilder(registry, locale, baseUrl);
+		// The event goes in the binding's $event slot if it has one, in the query string otherwise
+		this.eventParameter = (hasEventSlot(plan) ? UrlBindingParameter.PARAMETER_NAME_EVENT : StripesConstants.URL_KEY_EVENT_NAME);
+		// ActionBean urls always have the context prepended
+		final StringBuilder prefix = new StringBuilder();
+		if (contextPath != null && contextPath.length() > 1) prefix.append(contextPath);
+		if (!baseUrl.startsWith("/")) prefix.append('/');
+		this.prefix = prefix.toString();
+	}
+
+	private static boolean hasEventSlot(UrlBindingPlan plan) {
+		for (int i = 0; i < plan.size(); i++) {
+			if (UrlBindingParameter.PARAMETER_NAME_EVENT.equals(plan.names[i])) return true;
+		}
+		return false;
+	}
+
+
+
+	/**
+	 * Renders the link with no parameters other than the event.
+	 */
+	public String render() {
+		return build(start());
+	}
+
+	/**
+	 * Renders the link with a single parameter, the usual case for pagination links.
+	 */
+	public String render(String name, Object value) {
+		return build(start().addParameter(name, value));
+	}
+
+	/**
+	 * Renders the link with a set of parameters. Values may be single values, arrays or collections.
+	 */
+	public String render(Map<String,?> parameters) {
+		final UrlBuilder builder = start();
+		if (parameters != null) builder.addParameters(parameters);
+		return build(builder);
+	}
+
+	/**
+	 * Renders one link per parameter set, in order.
+	 */
+	public List<String> renderAll(Iterable<? extends Map<String,?>> parameterSets) {
+		final List<String> urls = new ArrayList<String>();
+		for (Map<String,?> parameters : parameterSets) {
+			urls.add(render(parameters));
+		}
+		return urls;
+	}
+
+	/**
+	 * Renders one link per value of a single parameter, in order.
+	 */
+	public List<String> renderAll(String name, Iterable<?> values) {
+		final List<String> urls = new ArrayList<String>();
+		for (Object value : values) {
+			urls.add(render(name, value));
+		}
+		return urls;
+	}
+
+	private UrlBuilder start() {
+		builder.reset(locale, baseUrl);
+		if (event != null) builder.addParameter(eventParameter, event);
+		return builder;
+	}
+
+	private String build(UrlBuilder builder) {
+		final String url = builder.build(plan);
+		return (prefix.length() == 0 ? url : prefix.concat(url));
+	}
+
+
+
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	public String getEvent() {
+		return event;
+	}
+
+	@Override
+	public String toString() {
+		return "LinkTemplate[" + prefix + baseUrl + (event == null ? "" : ";" + event) + "]";
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import net.sourceforge.stripes.action.HandlesEvent;
+import net.sourceforge.stripes.controller.ActionResolver;
+import net.sourceforge.stripes.controller.UrlBinding;
+import net.sourceforge.stripes.controller.UrlBindingParameter;
+
+/**
+ * <p>Immutable, precompiled form of a {@link UrlBinding} as seen from a given base url. It holds
+ * the literal segments, the parameter slots (with their default values and whether they must be
+ * encrypted) and the suffix, so {@link UrlBuilder} can render a clean url in one linear pass
+ * instead of walking the binding components on every link.</p>
+ * 
+ * <p>A passthrough plan means the base url is used unchanged: there's no binding, the binding
+ * has no parameters or the base url carries extra path info. Every plan also carries the names of
+ * the bound ActionBean's encrypted properties, for the parameters that go in the query string.</p>
+ */
+final class UrlBindingPlan {
+
+	static final UrlBindingPlan PASSTHROUGH = new UrlBindingPlan(null, new String[0], new String[0], new String[0], new boolean[0], null, null, Collections.<String>emptySet());
+
+	final String base;
+	final String[] literals;
+	final String[] names;
+	final String[] defaultValues;
+	final boolean[] encrypted;
+	final String trailingLiteral;
+	final String suffix;
+	final Set<String> encryptedProperties;
+
+
+	UrlBindingPlan(String base, String[] literals, String[] names, String[] defaultValues, boolean[] encrypted, String trailingLiteral, String suffix, Set<String> encryptedProperties) {
+		this.base = base;
+		this.literals = literals;
+		this.names = names;
+		this.defaultValues = defaultValues;
+		this.encrypted = encrypted;
+		this.trailingLiteral = trailingLiteral;
+		this.suffix = suffix;
+		this.encryptedProperties = encryptedProperties;
+	}
+
+	boolean isPassthrough() {
+		return base == null;
+	}
+
+	int size() {
+		return names.length;
+	}
+
+
+	/**
+	 * Returns a plan that leaves the base url unchanged.
+	 * 
+	 * @param encryptedProperties names of the encrypted properties of the bound ActionBean
+	 */
+	static UrlBindingPlan passthrough(Set<String> encryptedProperties) {
+		if (encryptedProperties.isEmpty()) return PASSTHROUGH;
+		return new UrlBindingPlan(null, PASSTHROUGH.literals, PASSTHROUGH.names, PASSTHROUGH.defaultValues, PASSTHROUGH.encrypted, null, null, encryptedProperties);
+	}
+
+	/**
+	 * Compiles the binding prototype found for a base url.
+	 * 
+	 * @param baseUrl the base url the binding prototype was looked up with
+	 * @param binding the binding prototype, may be null
+	 * @param encryptedProperties names of the encrypted properties of the bound ActionBean
+	 * @param resolver the action resolver, for the default value of $event parameters
+	 */
+	static UrlBindingPlan compile(String baseUrl, UrlBinding binding, Set<String> encryptedProperties, ActionResolver resolver) {
+		if (binding == null || binding.getParameters().size() == 0) {
+			return passthrough(encryptedProperties);
+		}
+
+		// if we have a parameterized binding then we need to trim it down to the path
+		String base = baseUrl;
+		if (baseUrl.equals(binding.toString())) {
+			base = binding.getPath();
+		}
+
+		// if any extra path info is present then do not add URI parameters
+		if (binding.getPath().length() < base.length()) {
+			return passthrough(encryptedProperties);
+		}
+
+		final List<String> literals = new ArrayList<String>();
+		final List<UrlBindingParameter> parameters = new ArrayList<UrlBindingParameter>();
+		String nextLiteral = null;
+		for (Object component : binding.getComponents()) {
+			if (component instanceof String) {
+				nextLiteral = (String) component;
+			}
+			else if (component instanceof UrlBindingParameter) {
+				literals.add(nextLiteral);
+				parameters.add((UrlBindingParameter) component);
+				nextLiteral = null;
+			}
+		}
+
+		final int size = parameters.size();
+		final String[] names = new String[size];
+		final String[] defaultValues = new String[size];
+		final boolean[] encrypted = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			UrlBindingParameter parameter = parameters.get(i);
+			names[i] = parameter.getName();
+			defaultValues[i] = getDefaultValue(parameter, resolver);
+			encrypted[i] = encryptedProperties.contains(parameter.getName());
+		}
+		return new UrlBindingPlan(base, literals.toArray(new String[size]), names, defaultValues, encrypted, nextLiteral, binding.getSuffix(), encryptedProperties);
+	}
+
+	/**
+	 * Same as {@link UrlBindingParameter#getDefaultValue()}, but the default event is asked to the
+	 * given resolver instead of the one of the current request, so plans can be compiled outside
+	 * of a request (e.g. when warming up the registry).
+	 */
+	private static String getDefaultValue(UrlBindingParameter parameter, ActionResolver resolver) {
+		final String defaultValue = new DeclaredDefault(parameter).getDeclaredDefaultValue();
+		if (defaultValue != null || !UrlBindingParameter.PARAMETER_NAME_EVENT.equals(parameter.getName())) {
+			return defaultValue;
+		}
+		try {
+			final Method handler = resolver.getDefaultHandler(parameter.getBeanClass());
+			final HandlesEvent annotation = handler.getAnnotation(HandlesEvent.class);
+			return (annotation != null ? annotation.value() : handler.getName());
+		}
+		catch (Exception e) {
+			// No default handler, so there's no default event either
+			return null;
+		}
+	}
+
+	/**
+	 * Gives access to the default value declared in the binding, before any default event lookup.
+	 */
+	private static final class DeclaredDefault extends UrlBindingParameter {
+
+		DeclaredDefault(UrlBindingParameter prototype) {
+			super(prototype);
+		}
+
+		String getDeclaredDefaultValue() {
+			return defaultValue;
+		}
+
+	}
+
+}
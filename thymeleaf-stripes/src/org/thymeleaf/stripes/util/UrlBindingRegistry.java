@@ -0,0 +1,526 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.ServletContext;
+
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.config.Configuration;
+import net.sourceforge.stripes.controller.ActionResolver;
+import net.sourceforge.stripes.controller.AnnotatedClassActionResolver;
+import net.sourceforge.stripes.controller.UrlBinding;
+import net.sourceforge.stripes.exception.UrlBindingConflictException;
+import net.sourceforge.stripes.format.DateFormatter;
+import net.sourceforge.stripes.format.Formatter;
+import net.sourceforge.stripes.format.FormatterFactory;
+import net.sourceforge.stripes.format.NumberFormatter;
+import net.sourceforge.stripes.util.ReflectUtil;
+import net.sourceforge.stripes.validation.ValidationMetadata;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.thymeleaf.stripes.expression.StaticLinkCache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * <p>Registry of ActionBean class names to url bindings for a single web application.</p>
+ * 
+ * <p>There's one registry per Stripes {@link Configuration}, stored as an attribute of its
+ * {@link ServletContext}, so applications sharing a container never see each other's bindings.
+ * It's filled in bulk from the ActionResolver's known ActionBeans when created, reads never lock,
+ * and names that don't resolve to an ActionBean are remembered too.</p>
+ */
+public final class UrlBindingRegistry {
+
+	private static final Logger logger = LoggerFactory.getLogger(UrlBindingRegistry.class);
+
+	public static final String REGISTRY_ATTRIBUTE_NAME = UrlBindingRegistry.class.getName();
+
+	/**
+	 * Stripes bootstrap property (filter init-param) listing, comma separated, the {@link Formatter}
+	 * classes that aren't thread-safe and so can't be shared between requests. Stripes' own
+	 * {@link DateFormatter} and {@link NumberFormatter} are always considered unshared.
+	 */
+	public static final String UNSHARED_FORMATTERS = "Thymeleaf.UnsharedFormatters";
+
+	/**
+	 * Stripes bootstrap property (filter init-param) with the path of a file where the warmed
+	 * link table is saved, so the next start can load it instead of resolving it again.
+	 * See {@link LinkTableSnapshot}.
+	 */
+	public static final String LINK_SNAPSHOT = "Thymeleaf.LinkSnapshot";
+
+	/**
+	 * Stripes bootstrap property (filter init-param) telling whether sessions are tracked with
+	 * cookies only, so links don't need <tt>HttpServletResponse.encodeURL</tt>: <tt>false</tt>
+	 * (the default, every link is encoded), <tt>true</tt> or <tt>auto</tt>, which asks Servlet 3.0+
+	 * containers for their effective session tracking modes and assumes url rewriting may happen
+	 * in older ones.
+	 */
+	public static final String COOKIE_ONLY_SESSIONS = "Thymeleaf.CookieOnlySessions";
+
+	// Bounds the names remembered as not being ActionBeans, since link bases may be dynamic
+	private static final int MAX_NEGATIVE_ENTRIES = 1000;
+	// Bounds the compiled binding plans, since base urls may carry extra path info
+	private static final int MAX_PLAN_ENTRIES = 5000;
+
+	// Negative cache markers for names that didn't resolve to an ActionBean binding
+	private static final Boolean NOT_FOUND = Boolean.FALSE;
+	private static final Boolean NOT_ACTION_BEAN = Boolean.TRUE;
+
+	// Registries of configurations without a ServletContext (e.g. tests), held weakly
+	private static final Cache<Configuration,UrlBindingRegistry> unattachedRegistries = CacheBuilder.newBuilder().weakKeys().build();
+	private static final Object lock = new Object();
+
+	private final Configuration configuration;
+	private final ConcurrentHashMap<String,String> bindings;
+	private final Cache<String,Boolean> negatives;
+	private final ConcurrentHashMap<String,UrlBindingPlan> plans;
+	private final ConcurrentHashMap<Class<? extends ActionBean>,Set<String>> encryptedProperties;
+	private final ConcurrentHashMap<Class<?>,ConcurrentHashMap<Locale,FormatterEntry>> formatters;
+	private final Set<String> unsharedFormatters;
+	private final File snapshotFile;
+	private final String fingerprint;
+	private final boolean snapshotLoaded;
+	private final boolean cookieOnlySessions;
+	private final StaticLinkCache staticLinks = new StaticLinkCache();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+
+	/**
+	 * Returns the registry for the web application the configuration belongs to, creating
+	 * (and filling) it the first time it's requested.
+	 */
+	public static UrlBindingRegistry get(Configuration config) {
+		final ServletContext servletContext = config.getServletContext();
+		UrlBindingRegistry registry = (servletContext == null ? unattachedRegistries.getIfPresent(config) : lookup(servletContext, config));
+		if (registry != null) return registry;
+		synchronized (lock) {
+			registry = (servletContext == null ? unattachedRegistries.getIfPresent(config) : lookup(servletContext, config));
+			if (registry == null) {
+				registry = new UrlBindingRegistry(config);
+				if (servletContext == null) unattachedRegistries.put(config, registry);
+				else servletContext.setAttribute(REGISTRY_ATTRIBUTE_NAME, registry);
+			}
+		}
+		return registry;
+	}
+
+	private static UrlBindingRegistry lookup(ServletContext servletContext, Configuration config) {
+		final Object registry = servletContext.getAttribute(REGISTRY_ATTRIBUTE_NAME);
+		// A reinitialized Stripes configuration invalidates the previous registry
+		if (registry instanceof UrlBindingRegistry && ((UrlBindingRegistry) registry).configuration == config) {
+			return (UrlBindingRegistry) registry;
+		}
+		return null;
+	}
+
+
+	private UrlBindingRegistry(Configuration config) {
+		this.configuration = config;
+		final Collection<Class<? extends ActionBean>> beanClasses = config.getActionResolver().getActionBeanClasses();
+		final int concurrencyLevel = Runtime.getRuntime().availableProcessors();
+		this.bindings = new ConcurrentHashMap<String,String>(Math.max(16, beanClasses.size() * 4 / 3 + 1), 0.75f, concurrencyLevel);
+		this.negatives = CacheBuilder.newBuilder().maximumSize(MAX_NEGATIVE_ENTRIES).concurrencyLevel(concurrencyLevel).build();
+		this.plans = new ConcurrentHashMap<String,UrlBindingPlan>(Math.max(16, beanClasses.size() * 4 / 3 + 1), 0.75f, concurrencyLevel);
+		this.encryptedProperties = new ConcurrentHashMap<Class<? extends ActionBean>,Set<String>>(Math.max(16, beanClasses.size() * 4 / 3 + 1), 0.75f, concurrencyLevel);
+		this.formatters = new ConcurrentHashMap<Class<?>,ConcurrentHashMap<Locale,FormatterEntry>>(16, 0.75f, concurrencyLevel);
+		this.unsharedFormatters = new HashSet<String>();
+		this.unsharedFormatters.add(DateFormatter.class.getName());
+		this.unsharedFormatters.add(NumberFormatter.class.getName());
+		final String unshared = getBootstrapProperty(config, UNSHARED_FORMATTERS);
+		if (unshared != null) {
+			for (String name : unshared.split(",")) {
+				if (name.trim().length() > 0) this.unsharedFormatters.add(name.trim());
+			}
+		}
+		this.cookieOnlySessions = isCookieOnlySessions(config);
+		final String snapshot = getBootstrapProperty(config, LINK_SNAPSHOT);
+		this.snapshotFile = (snapshot == null || snapshot.trim().length() == 0 ? null : new File(snapshot.trim()));
+		this.fingerprint = (snapshotFile == null ? null : fingerprint(beanClasses, config.getActionResolver().getClass()));
+		this.snapshotLoaded = (fingerprint != null && loadSnapshot(beanClasses));
+		if (!snapshotLoaded) {
+			for (Class<? extends ActionBean> beanClass : beanClasses) {
+				String binding = config.getActionResolver().getUrlBinding(beanClass);
+				if (binding != null) bindings.put(beanClass.getName(), binding);
+			}
+		}
+		logger.debug("Registered url bindings for {} ActionBean classes.", bindings.size());
+	}
+
+	private static String getBootstrapProperty(Configuration config, String name) {
+		return (config.getBootstrapPropertyResolver() == null ? null : config.getBootstrapPropertyResolver().getProperty(name));
+	}
+
+
+
+	private static boolean isCookieOnlySessions(Configuration config) {
+		final String mode = getBootstrapProperty(config, COOKIE_ONLY_SESSIONS);
+		if (mode == null) return false;
+		if (!"auto".equalsIgnoreCase(mode.trim())) {
+			return Boolean.parseBoolean(mode.trim());
+		}
+		final ServletContext servletContext = config.getServletContext();
+		if (servletContext == null) return false;
+		try {
+			// Servlet 3.0 API, looked up reflectively so older containers are still supported
+			final Object modes = servletContext.getClass().getMethod("getEffectiveSessionTrackingModes").invoke(servletContext);
+			if (!(modes instanceof Set<?>) || ((Set<?>) modes).size() != 1) return false;
+			final boolean cookieOnly = "COOKIE".equals(String.valueOf(((Set<?>) modes).iterator().next()));
+			logger.debug("Effective session tracking modes are {}, links {} be url encoded.", modes, (cookieOnly ? "won't" : "will"));
+			return cookieOnly;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private static String fingerprint(Collection<Class<? extends ActionBean>> beanClasses, Class<?> resolverClass) {
+		try {
+			return LinkTableSnapshot.fingerprint(beanClasses, resolverClass);
+		} catch (IOException e) {
+			logger.warn("Cannot fingerprint ActionBean classes, the link table snapshot won't be used: {}", e.getMessage());
+			return null;
+		}
+	}
+
+	private boolean loadSnapshot(Collection<Class<? extends ActionBean>> beanClasses) {
+		final Map<String,Class<? extends ActionBean>> byName = new HashMap<String,Class<? extends ActionBean>>();
+		for (Class<? extends ActionBean> beanClass : beanClasses) byName.put(beanClass.getName(), beanClass);
+		try {
+			final LinkTableSnapshot snapshot = LinkTableSnapshot.read(snapshotFile, fingerprint, byName);
+			if (snapshot == null) {
+				logger.info("No up to date link table snapshot found at {}.", snapshotFile);
+				return false;
+			}
+			bindings.putAll(snapshot.bindings);
+			plans.putAll(snapshot.plans);
+			encryptedProperties.putAll(snapshot.encryptedProperties);
+			logger.info("Loaded link table snapshot for {} ActionBean classes from {}.", bindings.size(), snapshotFile);
+			return true;
+		} catch (IOException e) {
+			logger.warn("Cannot read link table snapshot " + snapshotFile + ", it will be rebuilt.", e);
+			return false;
+		} catch (RuntimeException e) {
+			// Whatever a corrupt snapshot makes fail, the table can still be built from the resolver
+			logger.warn("Cannot read link table snapshot " + snapshotFile + ", it will be rebuilt.", e);
+			bindings.clear();
+			plans.clear();
+			encryptedProperties.clear();
+			return false;
+		}
+	}
+
+	/**
+	 * Saves the current link table to the file set with {@link #LINK_SNAPSHOT}, if any. It's done
+	 * after a warm up, unless the table was loaded from an up to date snapshot in the first place.
+	 */
+	public void saveSnapshot() {
+		if (snapshotFile == null || fingerprint == null) return;
+		try {
+			LinkTableSnapshot.write(snapshotFile, fingerprint,
+					new HashMap<String,String>(bindings),
+					new HashMap<String,UrlBindingPlan>(plans),
+					new HashMap<Class<? extends ActionBean>,Set<String>>(encryptedProperties));
+			logger.info("Saved link table snapshot for {} ActionBean classes to {}.", bindings.size(), snapshotFile);
+		} catch (IOException e) {
+			logger.warn("Cannot write link table snapshot " + snapshotFile, e);
+		}
+	}
+
+
+
+	/**
+	 * @return the url binding for the ActionBean class name, or null if the name isn't an existing class
+	 * @throws ClassCastException, if classname was found by the classloader but it wasn't an ActionBean
+	 */
+	public String getUrlBinding(String className) throws ClassCastException {
+		// Known ActionBeans are always found in the index
+		String binding = bindings.get(className);
+		if (binding != null) {
+			hits.incrementAndGet();
+			return binding;
+		}
+		// Names already known not to be ActionBeans don't hit the classloader again
+		Boolean negative = negatives.getIfPresent(className);
+		if (negative != null) {
+			hits.incrementAndGet();
+			if (negative == NOT_ACTION_BEAN) throw new ClassCastException("Cannot cast " + className + " to " + ActionBean.class.getName());
+			return null;
+		}
+		misses.incrementAndGet();
+		// Not registered, try to resolve bean class for name
+		// It may be null, if it's not an actionbean
+		Class<ActionBean> beanType;
+		try {
+			beanType = resolveActionBeanClass(className);
+		} catch(ClassCastException cce) {
+			negatives.put(className, NOT_ACTION_BEAN);
+			throw cce;
+		}
+		if (beanType != null) binding = configuration.getActionResolver().getUrlBinding(beanType);
+		// Cache the outcome, so this name is resolved only once
+		if (binding == null) negatives.put(className, NOT_FOUND);
+		else bindings.put(className, binding);
+		return binding;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Class<ActionBean> resolveActionBeanClass(String className) throws ClassCastException {
+		Class<?> actionBean = null;
+		try {
+			actionBean = ReflectUtil.findClass(className);
+			// Non ActionBean classes ARE an error
+			if (!ActionBean.class.isAssignableFrom(actionBean) || actionBean.isInterface()) {
+				logger.debug("Resolved class for name '{}' but it's not a concrete ActionBean. There's no way to guess the corresponding url.", className);
+				throw new ClassCastException("Cannot cast " + actionBean.getName() + " to " + ActionBean.class.getName());
+			}
+		} catch(ClassNotFoundException cnfe) {
+			// Looked like a class, but wasn't
+			logger.debug("Tried to resolve class for name '{}' but couldn't find it with the current classloader.", className);
+		}
+		return (Class<ActionBean>) actionBean;
+	}
+
+
+
+	/**
+	 * Compiles the binding plans and loads the validation metadata of every known ActionBean,
+	 * spread over a pool of the given number of threads, so the first requests after a deploy
+	 * don't pay for them. Failures are logged and skipped, they'll show again when the link is used.
+	 * The warmed table is then saved as a snapshot, if one is configured.
+	 * 
+	 * @param parallelism the number of threads to use
+	 * @return the number of ActionBeans warmed up
+	 */
+	public int warmUp(int parallelism) throws InterruptedException {
+		final Collection<Class<? extends ActionBean>> beanClasses = configuration.getActionResolver().getActionBeanClasses();
+		final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(beanClasses.size());
+		for (final Class<? extends ActionBean> beanClass : beanClasses) {
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call() {
+					try {
+						getEncryptedProperties(beanClass);
+						final String binding = bindings.get(beanClass.getName());
+						if (binding != null) getUrlBindingPlan(binding);
+						return Boolean.TRUE;
+					} catch (RuntimeException e) {
+						logger.debug("Couldn't warm up links to ActionBean " + beanClass.getName(), e);
+						return Boolean.FALSE;
+					}
+				}
+			});
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism),
+				new ThreadFactoryBuilder().setNameFormat("thymeleaf-stripes-warmup-%d").setDaemon(true).build());
+		try {
+			int warmed = 0;
+			for (Future<Boolean> result : executor.invokeAll(tasks)) {
+				if (Boolean.TRUE.equals(getQuietly(result))) warmed++;
+			}
+			if (!snapshotLoaded) saveSnapshot();
+			return warmed;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static Boolean getQuietly(Future<Boolean> result) throws InterruptedException {
+		try {
+			return result.get();
+		} catch (ExecutionException e) {
+			return Boolean.FALSE;
+		}
+	}
+
+
+
+	/**
+	 * Returns the compiled plan of the url binding prototype matching a base url. Plans are
+	 * compiled once per base url and shared by every {@link UrlBuilder} afterwards.
+	 */
+	UrlBindingPlan getUrlBindingPlan(String baseUrl) {
+		UrlBindingPlan plan = plans.get(baseUrl);
+		if (plan != null) return plan;
+		plan = compileUrlBindingPlan(baseUrl);
+		if (plans.size() < MAX_PLAN_ENTRIES) plans.putIfAbsent(baseUrl, plan);
+		return plan;
+	}
+
+	private UrlBindingPlan compileUrlBindingPlan(String baseUrl) {
+		ActionResolver resolver = configuration.getActionResolver();
+		if (!(resolver instanceof AnnotatedClassActionResolver)) {
+			Class<? extends ActionBean> beanType = null;
+			try {
+				beanType = resolver.getActionBeanType(baseUrl);
+			}
+			catch (UrlBindingConflictException e) {
+				// This can be safely ignored
+			}
+			return UrlBindingPlan.passthrough(getEncryptedProperties(beanType));
+		}
+
+		UrlBinding binding = null;
+		try {
+			binding = ((AnnotatedClassActionResolver) resolver).getUrlBindingFactory().getBindingPrototype(baseUrl);
+		}
+		catch (UrlBindingConflictException e) {
+			// This can be safely ignored
+		}
+		if (binding == null) return UrlBindingPlan.PASSTHROUGH;
+
+		return UrlBindingPlan.compile(baseUrl, binding, getEncryptedProperties(binding.getBeanType()), resolver);
+	}
+
+	/**
+	 * Returns the names of the encrypted properties of an ActionBean class, computed once per class
+	 * from its validation metadata. A null class has no encrypted properties.
+	 */
+	Set<String> getEncryptedProperties(Class<? extends ActionBean> beanType) {
+		if (beanType == null) return Collections.emptySet();
+		Set<String> names = encryptedProperties.get(beanType);
+		if (names != null) return names;
+
+		Map<String, ValidationMetadata> validations = configuration.getValidationMetadataProvider().getValidationMetadata(beanType);
+		names = new HashSet<String>();
+		if (validations != null) {
+			for (Map.Entry<String, ValidationMetadata> validation : validations.entrySet()) {
+				if (validation.getValue() != null && validation.getValue().encrypted())
+					names.add(validation.getKey());
+			}
+		}
+		names = names.isEmpty() ? Collections.<String>emptySet() : Collections.unmodifiableSet(names);
+		encryptedProperties.putIfAbsent(beanType, names);
+		return names;
+	}
+
+
+
+	/**
+	 * Returns the formatter resolution for a value type and locale, asking the {@link FormatterFactory}
+	 * only the first time. Formatters that aren't thread-safe are not kept here, the entry just says
+	 * so and callers keep their own instance.
+	 */
+	FormatterEntry getFormatterEntry(Class<?> type, Locale locale) {
+		ConcurrentHashMap<Locale,FormatterEntry> byLocale = formatters.get(type);
+		if (byLocale != null) {
+			FormatterEntry entry = byLocale.get(locale);
+			if (entry != null) return entry;
+		}
+		else {
+			formatters.putIfAbsent(type, new ConcurrentHashMap<Locale,FormatterEntry>(4, 0.75f, 1));
+			byLocale = formatters.get(type);
+		}
+
+		FormatterEntry entry;
+		FormatterFactory factory = configuration.getFormatterFactory();
+		Formatter<?> formatter = (factory == null ? null : factory.getFormatter(type, locale, null, null));
+		if (formatter == null)
+			entry = FormatterEntry.NONE;
+		else if (unsharedFormatters.contains(formatter.getClass().getName()))
+			entry = FormatterEntry.UNSHARED;
+		else
+			entry = new FormatterEntry(formatter);
+		byLocale.putIfAbsent(locale, entry);
+		return entry;
+	}
+
+
+
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+
+	/**
+	 * @return whether sessions are tracked with cookies only, see {@link #COOKIE_ONLY_SESSIONS}
+	 */
+	public boolean isCookieOnlySessions() {
+		return cookieOnlySessions;
+	}
+
+	/**
+	 * @return the urls of literal-only link expressions rendered in this application
+	 */
+	public StaticLinkCache getStaticLinkCache() {
+		return staticLinks;
+	}
+
+
+
+	/**
+	 * Statistics
+	 */
+	public int getSize() {
+		return bindings.size();
+	}
+	public long getHitCount() {
+		return hits.get();
+	}
+	public long getMissCount() {
+		return misses.get();
+	}
+
+
+
+	/**
+	 * Cached outcome of a formatter lookup: a shared formatter, no formatter at all (the value is
+	 * just toString()'d) or a formatter that must not be shared.
+	 */
+	static final class FormatterEntry {
+
+		static final FormatterEntry NONE = new FormatterEntry(null);
+		static final FormatterEntry UNSHARED = new FormatterEntry(null);
+
+		final Formatter<?> formatter;
+
+		FormatterEntry(Formatter<?> formatter) {
+			this.formatter = formatter;
+		}
+
+	}
+
+	@Override
+	public String toString() {
+		return "UrlBindingRegistry[bindings=" + bindings.size() + ", negatives=" + negatives.size() + ", hits=" + hits.get() + ", misses=" + misses.get() + "]";
+	}
+
+}
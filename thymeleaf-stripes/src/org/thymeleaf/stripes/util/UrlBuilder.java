@@ -14,28 +14,21 @@
  */
 package org.thymeleaf.stripes.util;
 
+import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import net.sourceforge.stripes.action.ActionBean;
 import net.sourceforge.stripes.config.Configuration;
-import net.sourceforge.stripes.controller.ActionResolver;
-import net.sourceforge.stripes.controller.AnnotatedClassActionResolver;
 import net.sourceforge.stripes.controller.UrlBinding;
 import net.sourceforge.stripes.controller.UrlBindingParameter;
-import net.sourceforge.stripes.exception.UrlBindingConflictException;
 import net.sourceforge.stripes.format.Formatter;
 import net.sourceforge.stripes.format.FormatterFactory;
-import net.sourceforge.stripes.util.CollectionUtil;
 import net.sourceforge.stripes.util.CryptoUtil;
-import net.sourceforge.stripes.util.Literal;
-import net.sourceforge.stripes.validation.ValidationMetadata;
-import net.sourceforge.stripes.validation.ValidationMetadataProvider;
 
 /**
  * <p>Simple class that encapsulates the process of building up a URL from a path fragment
@@ -50,34 +43,26 @@ import net.sourceforge.stripes.validation.ValidationMetadataProvider;
  */
 public class UrlBuilder {
 
-    /**
-     * Holds the name and value of a parameter to be appended to the URL.
-     */
-    private static class Parameter {
-        String name;
-        Object value;
-
-        Parameter(String name, Object value) {
-            this.name = name;
-            this.value = value;
-        }
-
-        public boolean isEvent() {
-            return UrlBindingParameter.PARAMETER_NAME_EVENT.equals(name);
-        }
-
-        @Override
-        public String toString() {
-            return "" + this.name + "=" + this.value;
-        }
-    }
+    private static final int INITIAL_CAPACITY = 8;
 
     private Configuration configuration;
+    private UrlBindingRegistry registry;
     
     private String baseUrl;
     private String anchor;
     private Locale locale;
-    private List<Parameter> parameters = new LinkedList<Parameter>();
+
+    // Parameters are kept in parallel arrays; parameters embedded in the URI by the binding
+    // are marked as consumed instead of being removed
+    private String[] names = new String[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private boolean[] consumed = new boolean[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private final StringBuilder buffer = new StringBuilder(256);
+
+    // Formatters that can't be shared between threads, kept for as long as the builder is
+    private Map<Class<?>, Formatter<?>> unsharedFormatters = null;
 
 
     /**
@@ -90,7 +75,41 @@ public class UrlBuilder {
      * @param url the path part of the URL
      */
     public UrlBuilder(Configuration config, Locale locale, String url) {
-    	this.configuration = config;
+    	this(UrlBindingRegistry.get(config), locale, url);
+    }
+
+    /**
+     * Constructs a UrlBuilder that compiles url bindings against an already known registry.
+     *
+     * @param registry the url binding registry of the application
+     * @param locale the locale to use when formatting parameters with a {@link Formatter}
+     * @param url the path part of the URL
+     */
+    public UrlBuilder(UrlBindingRegistry registry, Locale locale, String url) {
+    	this.registry = registry;
+    	this.configuration = registry.getConfiguration();
+    	reset(locale, url);
+    }
+
+    /**
+     * Clears parameters and anchor so the builder can be reused for another URL, keeping the
+     * buffers already allocated.
+     *
+     * @param locale the locale to use when formatting parameters with a {@link Formatter}
+     * @param url the path part of the URL
+     */
+    public UrlBuilder reset(Locale locale, String url) {
+        for (int i = 0; i < size; i++) {
+            names[i] = null;
+            values[i] = null;
+            consumed[i] = false;
+        }
+        this.size = 0;
+        this.anchor = null;
+        this.baseUrl = null;
+        if (unsharedFormatters != null && !unsharedFormatters.isEmpty() && (locale == null || !locale.equals(this.locale))) {
+            unsharedFormatters.clear();
+        }
         this.locale = locale;
         if (url != null) {
             // Check to see if there is an embedded anchor, and strip it out for later
@@ -104,6 +123,7 @@ public class UrlBuilder {
 
             this.baseUrl = url;
         }
+        return this;
     }
 
 
@@ -124,20 +144,12 @@ public class UrlBuilder {
     public UrlBuilder addParameter(String name, Object... values) {
         // If values is null or empty, then simply sub in a single empty string
         if (values == null || values.length == 0) {
-            values = Literal.array("");
+            add(name, "");
+            return this;
         }
 
         for (Object v : values) {
-            // Special case: recurse for nested collections and arrays!
-            if (v instanceof Collection<?>) {
-                addParameter(name, ((Collection<?>) v).toArray());
-            }
-            else if (v != null && v.getClass().isArray()) {
-                addParameter(name, CollectionUtil.asObjectArray(v));
-            }
-            else {
-                parameters.add(new Parameter(name, v));
-            }
+            addValue(name, v);
         }
         
         return this;
@@ -158,22 +170,59 @@ public class UrlBuilder {
             Object valueOrValues = parameter.getValue();
 
             if (valueOrValues == null) {
-                addParameter(name, (Object) null);
-            }
-            else if (valueOrValues.getClass().isArray()) {
-                addParameter(name, CollectionUtil.asObjectArray(valueOrValues));
-            }
-            else if (valueOrValues instanceof Collection<?>) {
-                addParameter(name, (Collection<?>) valueOrValues);
+                add(name, null);
             }
             else {
-                addParameter(name, valueOrValues);
+                addValue(name, valueOrValues);
             }
         }
         
         return this;
     }
 
+    /**
+     * Adds a single value, walking nested collections and arrays in place instead of copying
+     * them. An empty collection or array adds a single empty string.
+     */
+    private void addValue(String name, Object value) {
+        if (value instanceof Collection<?>) {
+            Collection<?> collection = (Collection<?>) value;
+            if (collection.isEmpty()) {
+                add(name, "");
+            }
+            else {
+                for (Object v : collection) {
+                    addValue(name, v);
+                }
+            }
+        }
+        else if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            if (length == 0) {
+                add(name, "");
+            }
+            else {
+                for (int i = 0; i < length; i++) {
+                    addValue(name, Array.get(value, i));
+                }
+            }
+        }
+        else {
+            add(name, value);
+        }
+    }
+
+    private void add(String name, Object value) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+            consumed = Arrays.copyOf(consumed, size * 2);
+        }
+        names[size] = name;
+        values[size] = value;
+        size++;
+    }
+
     /**
      * Sets the anchor, if any, that will be appended to the URL. E.g. if supplied with
      * 'input' then the URL will be terminated with '#input' in order to instruct
@@ -196,7 +245,13 @@ public class UrlBuilder {
      */
     @Override
     public String toString() {
-    	return "["+baseUrl+";"+parameters.toString()+";"+this.anchor+"]";
+    	StringBuilder parameters = new StringBuilder("[");
+    	for (int i = 0; i < size; i++) {
+    		if (i > 0) parameters.append(", ");
+    		parameters.append(names[i]).append('=').append(values[i]);
+    	}
+    	parameters.append(']');
+    	return "["+baseUrl+";"+parameters+";"+this.anchor+"]";
     }
 
     /**
@@ -227,57 +282,56 @@ public class UrlBuilder {
      * Tries to get a formatter for the given value using the {@link FormatterFactory}. Returns
      * null if there is no {@link Configuration} or {@link FormatterFactory} available (e.g. in a
      * test environment) or if there is no {@link Formatter} configured for the value's type.
+     * Lookups are cached by type and locale in the registry, and formatters that aren't
+     * thread-safe are created once per builder instead of once per value.
      * 
      * @param value the object to be formatted
      * @return a formatter, if one can be found; null otherwise
      */
 	private Formatter<?> getFormatter(Object value) {
-        FormatterFactory factory = configuration.getFormatterFactory();
-        if (factory == null)
-            return null;
-
-        return factory.getFormatter(value.getClass(), locale, null, null);
-    }
-
-    /**
-     * Get a map of property names to {@link ValidationMetadata} for the {@link ActionBean} class
-     * bound to the URL being built. If the URL does not point to an ActionBean class or no
-     * validation metadata exists for the ActionBean class then an empty map will be returned.
-     * 
-     * @return a map of ActionBean property names to their validation metadata
-     * @see ValidationMetadataProvider#getValidationMetadata(Class)
-     */
-    private Map<String, ValidationMetadata> getValidationMetadata() {
-        Map<String, ValidationMetadata> validations = null;
-        Class<? extends ActionBean> beanType = null;
-        try {
-            beanType = configuration.getActionResolver().getActionBeanType(this.baseUrl);
-        }
-        catch (UrlBindingConflictException e) {
-            // This can be safely ignored
+        Class<?> type = value.getClass();
+        if (locale == null) {
+            FormatterFactory factory = configuration.getFormatterFactory();
+            return (factory == null ? null : factory.getFormatter(type, locale, null, null));
         }
 
-        if (beanType != null) {
-            validations = configuration.getValidationMetadataProvider().getValidationMetadata(beanType);
-        }
-
-        if (validations == null)
-            validations = Collections.emptyMap();
+        UrlBindingRegistry.FormatterEntry entry = registry.getFormatterEntry(type, locale);
+        if (entry != UrlBindingRegistry.FormatterEntry.UNSHARED)
+            return entry.formatter;
 
-        return validations;
+        if (unsharedFormatters == null)
+            unsharedFormatters = new HashMap<Class<?>, Formatter<?>>(4);
+        Formatter<?> formatter = unsharedFormatters.get(type);
+        if (formatter == null) {
+            formatter = configuration.getFormatterFactory().getFormatter(type, locale, null, null);
+            unsharedFormatters.put(type, formatter);
+        }
+        return formatter;
     }
 
     /**
      * Build and return the URL
      */
     public String build() {
-        // lookup validation info for the bean class to find encrypted properties
-        Map<String, ValidationMetadata> validations = getValidationMetadata();
+        return build(registry.getUrlBindingPlan(this.baseUrl));
+    }
 
-        StringBuilder buffer = new StringBuilder(256);
-        buffer.append(composeBaseURL(this.baseUrl, parameters));
+    /**
+     * Build and return the URL with an already compiled plan for the base URL, as
+     * {@link LinkTemplate} does for every link rendered from it.
+     */
+    String build(UrlBindingPlan plan) {
+        // the compiled plan also knows the encrypted properties of the bean class
+        Set<String> encryptedProperties = plan.encryptedProperties;
+
+        StringBuilder buffer = this.buffer;
+        buffer.setLength(0);
+        composeBaseURL(buffer, plan, this.baseUrl);
         boolean seenQuestionMark = buffer.indexOf("?") != -1;
-        for (Parameter param : parameters) {
+        for (int i = 0; i < size; i++) {
+            // Skip parameters already embedded in the URI
+            if (consumed[i])
+                continue;
             // Figure out whether we already have params or not
             if (!seenQuestionMark) {
                 buffer.append('?');
@@ -286,130 +340,100 @@ public class UrlBuilder {
             else {
                 buffer.append("&");
             }
-            buffer.append(param.name).append('=');
-            if (param.value != null) {
-                ValidationMetadata validation = validations.get(param.name);
-                String formatted = format(param.value);
-                if (validation != null && validation.encrypted())
+            buffer.append(names[i]).append('=');
+            if (values[i] != null) {
+                String formatted = format(values[i]);
+                if (!encryptedProperties.isEmpty() && encryptedProperties.contains(names[i]))
                     formatted = CryptoUtil.encrypt(formatted);
-                buffer.append(formatted);
+                UrlEncoder.encode(formatted, buffer);
             }
         }
         return buffer.toString();
     }
 
     /**
-     * Get the base URL (without a query string). If a {@link UrlBinding} exists for the URL or
-     * {@link ActionBean} type that was passed into the constructor, then this method will return
+     * Append the base URL (without a query string). If a {@link UrlBinding} exists for the URL or
+     * {@link ActionBean} type that was passed into the constructor, then this method will append
      * the base URL after appending any URI parameters that have been added with a call to
      * {@link #addParameter(String, Object[])} or {@link #addParameters(Map)}. Otherwise, it
-     * returns the original base URL.
+     * appends the original base URL.
      * 
-     * @param baseUrl The base URL to start with. In many cases, this value will be returned
+     * @param buffer The buffer the URL is being built in.
+     * @param plan The compiled plan of the binding for the base URL.
+     * @param baseUrl The base URL to start with. In many cases, this value will be appended
      *            unchanged.
-     * @param parameters The query parameters. Any parameters that should not be appended to the
-     *            query string by {@link #build()} (e.g., because they are embedded in the URL)
-     *            should be removed from the collection before this method returns.
-     * @return the base URL, without a query string
-     * @see #UrlBuilder(Locale, Class, boolean)
-     * @see #UrlBuilder(Locale, String, boolean)
+     *            Any parameters that should not be appended to the query string by
+     *            {@link #build()} (e.g., because they are embedded in the URL) are marked as
+     *            consumed before this method returns.
+     * @see UrlBindingPlan
      */
-    private String composeBaseURL(String baseUrl, Collection<Parameter> parameters) {
-        ActionResolver resolver = configuration.getActionResolver();
-        if (!(resolver instanceof AnnotatedClassActionResolver))
-            return baseUrl;
-
-        UrlBinding binding = null;
-        try {
-            binding = ((AnnotatedClassActionResolver) resolver).getUrlBindingFactory()
-                    .getBindingPrototype(baseUrl);
-        }
-        catch (UrlBindingConflictException e) {
-            // This can be safely ignored
+    private void composeBaseURL(StringBuilder buffer, UrlBindingPlan plan, String baseUrl) {
+        if (plan.isPassthrough()) {
+            buffer.append(baseUrl);
+            return;
         }
 
-        if (binding == null || binding.getParameters().size() == 0) {
-            return baseUrl;
-        }
-
-        // if we have a parameterized binding then we need to trim it down to the path
-        if (baseUrl.equals(binding.toString())) {
-            baseUrl = binding.getPath();
-        }
+        buffer.append(plan.base);
 
-        // if any extra path info is present then do not add URI parameters
-        if (binding.getPath().length() < baseUrl.length()) {
-            return baseUrl;
-        }
-
-        // lookup validation info for the bean class to find encrypted properties
-        Map<String, ValidationMetadata> validations = getValidationMetadata();
-
-        // map the declared URI parameter names to values
-        Map<String, Parameter> map = new HashMap<String, Parameter>();
-        for (Parameter p : parameters) {
-            if (!map.containsKey(p.name))
-                map.put(p.name, p);
-        }
+        boolean complete = true;
+        for (int i = 0; i < plan.size(); i++) {
+            // get the value for the parameter, falling back to default value if present
+            int assigned = findParameter(plan.names[i]);
+            boolean event = UrlBindingParameter.PARAMETER_NAME_EVENT.equals(plan.names[i]);
+            Object value;
+            if (assigned != -1 && (values[assigned] != null || event))
+                value = values[assigned];
+            else
+                value = plan.defaultValues[i];
 
-        StringBuilder buf = new StringBuilder(256);
-        buf.append(baseUrl);
+            boolean ok = false;
+            if (value != null) {
+                // format (and maybe encrypt) the value as a string
+                String formatted = format(value);
+                if (plan.encrypted[i])
+                    formatted = CryptoUtil.encrypt(formatted);
 
-        String nextLiteral = null;
-        for (Object component : binding.getComponents()) {
-            if (component instanceof String) {
-                nextLiteral = (String) component;
-            }
-            else if (component instanceof UrlBindingParameter) {
-                boolean ok = false;
-
-                // get the value for the parameter, falling back to default value if present
-                UrlBindingParameter parameter = (UrlBindingParameter) component;
-                Parameter assigned = map.get(parameter.getName());
-                Object value;
-                if (assigned != null && (assigned.value != null || assigned.isEvent()))
-                    value = assigned.value;
-                else
-                    value = parameter.getDefaultValue();
-
-                if (value != null) {
-                    // format (and maybe encrypt) the value as a string
-                    String formatted = format(value);
-                    ValidationMetadata validation = validations.get(parameter.getName());
-                    if (validation != null && validation.encrypted())
-                        formatted = CryptoUtil.encrypt(formatted);
-
-                    // if after formatting we still have a value then embed it in the URI
-                    if (formatted != null && formatted.length() > 0) {
-                        if (nextLiteral != null) {
-                            buf.append(nextLiteral);
-                        }
-
-                        buf.append(formatted);
-                        parameters.remove(assigned);
-                        ok = true;
+                // if after formatting we still have a value then embed it in the URI
+                if (formatted != null && formatted.length() > 0) {
+                    if (plan.literals[i] != null) {
+                        buffer.append(plan.literals[i]);
                     }
+
+                    UrlEncoder.encode(formatted, buffer);
+                    if (assigned != -1)
+                        consumed[assigned] = true;
+                    ok = true;
                 }
-                else if (assigned != null && assigned.isEvent()) {
-                    // remove event parameter even if value is null
-                    parameters.remove(assigned);
-                }
+            }
+            else if (assigned != -1 && event) {
+                // remove event parameter even if value is null
+                consumed[assigned] = true;
+            }
 
-                nextLiteral = null;
-                if (!ok)
-                    break;
+            if (!ok) {
+                complete = false;
+                break;
             }
         }
 
         // always append trailing literal if one is present
-        if (nextLiteral != null) {
-            buf.append(nextLiteral);
+        if (complete && plan.trailingLiteral != null) {
+            buffer.append(plan.trailingLiteral);
         }
-        else if (binding.getSuffix() != null) {
-            buf.append(binding.getSuffix());
+        else if (plan.suffix != null) {
+            buffer.append(plan.suffix);
         }
+    }
 
-        return buf.toString();
+    /**
+     * Returns the position of the first parameter added with the given name, or -1 if there's none.
+     */
+    private int findParameter(String name) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name))
+                return i;
+        }
+        return -1;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,131 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.util;
+
+/**
+ * <p>UTF-8 percent-encoder producing the same output as
+ * <code>URLEncoder.encode(value, "UTF-8")</code>, but writing straight into the target
+ * {@link StringBuilder}: runs of safe characters are copied as they are and the rest are encoded
+ * from precomputed escapes, without charset lookups or intermediate strings.</p>
+ */
+public final class UrlEncoder {
+
+	// Characters that are never encoded: a-z A-Z 0-9 . - * _
+	private static final boolean[] SAFE = new boolean[128];
+	// "%XX" escape for every byte value
+	private static final char[][] ESCAPES = new char[256][];
+
+	// Unpaired surrogates are encoded as '?', same as the JDK does
+	private static final int REPLACEMENT = '?';
+
+	static {
+		for (int c = 'a'; c <= 'z'; c++) SAFE[c] = true;
+		for (int c = 'A'; c <= 'Z'; c++) SAFE[c] = true;
+		for (int c = '0'; c <= '9'; c++) SAFE[c] = true;
+		SAFE['.'] = true;
+		SAFE['-'] = true;
+		SAFE['*'] = true;
+		SAFE['_'] = true;
+		final char[] hex = "0123456789ABCDEF".toCharArray();
+		for (int b = 0; b < 256; b++) {
+			ESCAPES[b] = new char[] { '%', hex[b >> 4], hex[b & 0xF] };
+		}
+	}
+
+
+	private UrlEncoder() {
+		super();
+	}
+
+
+
+	/**
+	 * Appends the encoded form of a value to the target builder.
+	 * 
+	 * @param value the value to encode, null is treated as an empty string
+	 * @param target the builder the encoded value is appended to
+	 * @return the target builder
+	 */
+	public static StringBuilder encode(final String value, final StringBuilder target) {
+		if (value == null) return target;
+		final int length = value.length();
+		int runStart = 0;
+		int i = 0;
+		while (i < length) {
+			final char c = value.charAt(i);
+			if (c < 128 && SAFE[c]) {
+				i++;
+				continue;
+			}
+			// Flush the run of safe characters before the one being encoded
+			if (runStart < i) target.append(value, runStart, i);
+			if (c == ' ') {
+				target.append('+');
+				i++;
+			}
+			else if (c < 0x80) {
+				target.append(ESCAPES[c]);
+				i++;
+			}
+			else if (c < 0x800) {
+				target.append(ESCAPES[0xC0 | (c >> 6)]);
+				target.append(ESCAPES[0x80 | (c & 0x3F)]);
+				i++;
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, value.charAt(i + 1));
+				target.append(ESCAPES[0xF0 | (cp >> 18)]);
+				target.append(ESCAPES[0x80 | ((cp >> 12) & 0x3F)]);
+				target.append(ESCAPES[0x80 | ((cp >> 6) & 0x3F)]);
+				target.append(ESCAPES[0x80 | (cp & 0x3F)]);
+				i += 2;
+			}
+			else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				target.append(ESCAPES[REPLACEMENT]);
+				i++;
+			}
+			else {
+				target.append(ESCAPES[0xE0 | (c >> 12)]);
+				target.append(ESCAPES[0x80 | ((c >> 6) & 0x3F)]);
+				target.append(ESCAPES[0x80 | (c & 0x3F)]);
+				i++;
+			}
+			runStart = i;
+		}
+		if (runStart == 0) return target.append(value);
+		if (runStart < length) target.append(value, runStart, length);
+		return target;
+	}
+
+	/**
+	 * Returns the encoded form of a value, or the value itself if nothing needs encoding.
+	 */
+	public static String encode(final String value) {
+		if (value == null) return "";
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c >= 128 || !SAFE[c]) {
+				return encode(value, new StringBuilder(value.length() + 16)).toString();
+			}
+		}
+		return value;
+	}
+
+}
@@ -0,0 +1,222 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sourceforge.stripes.config.BootstrapPropertyResolver;
+import net.sourceforge.stripes.config.Configuration;
+import net.sourceforge.stripes.config.DefaultConfiguration;
+import net.sourceforge.stripes.controller.StripesFilter;
+import net.sourceforge.stripes.controller.StripesRequestWrapper;
+import net.sourceforge.stripes.exception.StripesServletException;
+
+import org.thymeleaf.stripes.context.StripesWebContext;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+/**
+ * A Stripes configuration, requests and a template engine for tests, without a servlet container.
+ * ActionBeans are found in <tt>org.thymeleaf.stripes.testbeans</tt> and templates in
+ * <tt>org/thymeleaf/stripes/templates</tt>. The configuration is the current thread's one, and
+ * the application's only one for other threads, as StripesFilter would make it, until {@link #close()}.
+ */
+public final class StripesTestSupport {
+
+	public static final String CONTEXT_PATH = "/app";
+
+	private final ServletContext servletContext;
+	private final Configuration configuration;
+	private final StripesTemplateEngine engine;
+	private final Thread requestThread = Thread.currentThread();
+	// Request methods called from threads other than the one creating the support
+	private final List<String> foreignRequestCalls = Collections.synchronizedList(new ArrayList<String>());
+
+
+	public StripesTestSupport() {
+		super();
+		this.servletContext = (ServletContext) proxy(ServletContext.class, new Servlet(null));
+		final Map<String,String> parameters = new HashMap<String,String>();
+		parameters.put("ActionResolver.Packages", "org.thymeleaf.stripes.testbeans");
+		final FilterConfig filterConfig = (FilterConfig) proxy(FilterConfig.class, new InvocationHandler() {
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				if (method.getName().equals("getInitParameter")) return parameters.get(args[0]);
+				if (method.getName().equals("getInitParameterNames")) return Collections.enumeration(parameters.keySet());
+				if (method.getName().equals("getServletContext")) return servletContext;
+				return null;
+			}
+		});
+		final DefaultConfiguration config = new DefaultConfiguration();
+		config.setBootstrapPropertyResolver(new BootstrapPropertyResolver(filterConfig));
+		config.init();
+		this.configuration = config;
+		getConfigurationStash().set(config);
+		final Set<WeakReference<Configuration>> configurations = getConfigurations();
+		synchronized (configurations) {
+			configurations.add(new WeakReference<Configuration>(config));
+		}
+
+		this.engine = new StripesTemplateEngine();
+		final ClassLoaderTemplateResolver resolver = new ClassLoaderTemplateResolver();
+		resolver.setTemplateMode("XHTML");
+		resolver.setPrefix("org/thymeleaf/stripes/templates/");
+		resolver.setSuffix(".html");
+		resolver.setCacheable(false);
+		this.engine.setTemplateResolver(resolver);
+	}
+
+
+
+	public Configuration getConfiguration() {
+		return configuration;
+	}
+
+	public StripesTemplateEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * @return a GET request to the application, wrapped by Stripes, with the given parameters
+	 */
+	public HttpServletRequest request(final Map<String,String[]> parameters) {
+		try {
+			return new StripesRequestWrapper((HttpServletRequest) proxy(HttpServletRequest.class, new Servlet(parameters)));
+		} catch (final StripesServletException e) {
+			throw new IllegalStateException("Cannot wrap the request", e);
+		}
+	}
+
+	public HttpServletResponse response() {
+		return (HttpServletResponse) proxy(HttpServletResponse.class, new Servlet(null));
+	}
+
+	public StripesWebContext context(final HttpServletRequest request) {
+		return new StripesWebContext(request, response(), servletContext, Locale.ENGLISH);
+	}
+
+	public String process(final String template, final StripesWebContext context) {
+		return engine.process(template, context);
+	}
+
+	/**
+	 * @return the request methods called from other threads than the test's one
+	 */
+	public List<String> getForeignRequestCalls() {
+		return foreignRequestCalls;
+	}
+
+	public void close() {
+		getConfigurationStash().remove();
+		final Set<WeakReference<Configuration>> configurations = getConfigurations();
+		synchronized (configurations) {
+			for (final Iterator<WeakReference<Configuration>> i = configurations.iterator(); i.hasNext(); ) {
+				if (i.next().get() == configuration) i.remove();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ThreadLocal<Configuration> getConfigurationStash() {
+		return (ThreadLocal<Configuration>) getStripesFilterField("configurationStash");
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Set<WeakReference<Configuration>> getConfigurations() {
+		return (Set<WeakReference<Configuration>>) getStripesFilterField("configurations");
+	}
+
+	private static Object getStripesFilterField(final String name) {
+		try {
+			final Field field = StripesFilter.class.getDeclaredField(name);
+			field.setAccessible(true);
+			return field.get(null);
+		} catch (final Exception e) {
+			throw new IllegalStateException("Cannot set the current Stripes configuration", e);
+		}
+	}
+
+	private static Object proxy(final Class<?> type, final InvocationHandler handler) {
+		return Proxy.newProxyInstance(StripesTestSupport.class.getClassLoader(), new Class<?>[] { type }, handler);
+	}
+
+
+
+	/**
+	 * Servlet API objects with attributes, answering defaults for everything else.
+	 */
+	private final class Servlet implements InvocationHandler {
+
+		private final Map<String,Object> attributes = new HashMap<String,Object>();
+		private final Map<String,String[]> parameters;
+
+		Servlet(final Map<String,String[]> parameters) {
+			super();
+			this.parameters = (parameters != null ? parameters : Collections.<String,String[]>emptyMap());
+		}
+
+		public Object invoke(final Object proxy, final Method method, final Object[] args) {
+			final String name = method.getName();
+			if (name.equals("hashCode")) return Integer.valueOf(System.identityHashCode(proxy));
+			if (name.equals("equals")) return Boolean.valueOf(proxy == args[0]);
+			if (name.equals("toString")) return "Servlet[" + method.getDeclaringClass().getSimpleName() + "]";
+			if (Thread.currentThread() != requestThread && method.getDeclaringClass() != ServletContext.class) {
+				foreignRequestCalls.add(name);
+			}
+			if (name.equals("getAttribute")) return attributes.get(args[0]);
+			if (name.equals("setAttribute")) return attributes.put((String) args[0], args[1]);
+			if (name.equals("removeAttribute")) return attributes.remove(args[0]);
+			if (name.equals("getAttributeNames")) return Collections.enumeration(new ArrayList<String>(attributes.keySet()));
+			if (name.equals("getParameterMap")) return parameters;
+			if (name.equals("getParameterNames")) return Collections.enumeration(parameters.keySet());
+			if (name.equals("getParameterValues")) return parameters.get(args[0]);
+			if (name.equals("getParameter")) return (parameters.containsKey(args[0]) ? parameters.get(args[0])[0] : null);
+			if (name.equals("getInitParameterNames")) return Collections.enumeration(Collections.emptyList());
+			if (name.equals("getContextPath")) return CONTEXT_PATH;
+			if (name.equals("getServletPath")) return "/page";
+			if (name.equals("getRequestURI")) return CONTEXT_PATH + "/page";
+			if (name.equals("getMethod")) return "GET";
+			if (name.equals("getLocale")) return Locale.ENGLISH;
+			if (name.equals("getLocales")) return Collections.enumeration(Collections.singletonList(Locale.ENGLISH));
+			if (name.equals("getCharacterEncoding")) return "UTF-8";
+			if (name.equals("encodeURL")) return args[0];
+			if (method.getReturnType() == boolean.class) return Boolean.FALSE;
+			if (method.getReturnType() == int.class) return Integer.valueOf(0);
+			return null;
+		}
+
+	}
+
+}
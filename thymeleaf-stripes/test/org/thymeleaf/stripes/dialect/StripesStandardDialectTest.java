@@ -0,0 +1,67 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.dialect;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+import org.thymeleaf.standard.expression.LinkExpression;
+import org.thymeleaf.stripes.agent.LinkExpressionAgent;
+import org.thymeleaf.stripes.expression.LinkExpressionPatcher;
+import org.thymeleaf.stripes.expression.StripesStandardExpressionParser;
+
+public class StripesStandardDialectTest {
+
+	@After
+	public void tearDown() {
+		System.clearProperty(StripesStandardDialect.LINK_MODE_PROPERTY);
+		System.clearProperty(LinkExpressionAgent.INSTALLED_PROPERTY);
+	}
+
+
+	@Test
+	public void linksAreWrappedByTheParserByDefault() {
+		final StripesStandardDialect dialect = new StripesStandardDialect();
+		assertTrue(dialect.getExpressionParser() instanceof StripesStandardExpressionParser);
+		assertFalse(isLinkExpressionPatched());
+	}
+
+	@Test
+	public void installedAgentIsLeftToPatch() {
+		System.setProperty(LinkExpressionAgent.INSTALLED_PROPERTY, "true");
+		System.setProperty(StripesStandardDialect.LINK_MODE_PROPERTY, StripesStandardDialect.PATCH_LINK_MODE);
+		final StripesStandardDialect dialect = new StripesStandardDialect();
+		// No agent really transformed the class here, so links fall back to the parser
+		assertFalse(isLinkExpressionPatched());
+		assertTrue(dialect.getExpressionParser() instanceof StripesStandardExpressionParser);
+	}
+
+	private static boolean isLinkExpressionPatched() {
+		try {
+			LinkExpression.class.getDeclaredField(LinkExpressionPatcher.PATCHED_MARKER_FIELD);
+			return true;
+		} catch (final NoSuchFieldException e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.thymeleaf.stripes.expression.StripesLinkExpressionTest.renderLinks;
+import static org.thymeleaf.stripes.expression.StripesLinkExpressionTest.stripesUrl;
+
+import java.util.Locale;
+import java.util.Map;
+
+import net.sourceforge.stripes.util.UrlBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.thymeleaf.standard.expression.LinkExpression;
+import org.thymeleaf.stripes.StripesTestSupport;
+import org.thymeleaf.stripes.dialect.StripesStandardDialect;
+import org.thymeleaf.stripes.testbeans.ItemActionBean;
+import org.thymeleaf.stripes.testbeans.ListActionBean;
+
+/**
+ * Links with the dialect's <tt>patch</tt> link mode, where every link expression resolves ActionBean
+ * classes. LinkExpression must not have been loaded before, so it needs a JVM of its own.
+ */
+public class StripesLinkExpressionPatchTest {
+
+	private StripesTestSupport support;
+
+
+	@BeforeClass
+	public static void setUpClass() {
+		System.setProperty(StripesStandardDialect.LINK_MODE_PROPERTY, StripesStandardDialect.PATCH_LINK_MODE);
+	}
+
+	@Before
+	public void setUp() {
+		support = new StripesTestSupport();
+	}
+
+	@After
+	public void tearDown() {
+		support.close();
+	}
+
+
+	@Test
+	public void linkExpressionIsPatched() throws Exception {
+		LinkExpression.class.getDeclaredField(LinkExpressionPatcher.PATCHED_MARKER_FIELD);
+	}
+
+	@Test
+	public void nestedLinksMatchStripesUrls() {
+		final Map<String,String> links = renderLinks(support);
+		assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ListActionBean.class, false).addParameter("n", 1)), links.get("nested"));
+		assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ListActionBean.class, false).addParameter("n", 2)), links.get("attr"));
+	}
+
+	@Test
+	public void otherLinksAreUnchanged() {
+		final Map<String,String> links = renderLinks(support);
+		assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ItemActionBean.class, false).addParameter("id", 5)), links.get("item"));
+		assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ListActionBean.class, false).addParameter("q", StripesLinkExpressionTest.Q)), links.get("listDynamic"));
+	}
+
+}
@@ -0,0 +1,184 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.expression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sourceforge.stripes.util.UrlBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thymeleaf.stripes.StripesTestSupport;
+import org.thymeleaf.stripes.context.StripesWebContext;
+import org.thymeleaf.stripes.testbeans.ItemActionBean;
+import org.thymeleaf.stripes.testbeans.ListActionBean;
+
+/**
+ * Links rendered by the dialect must be the ones Stripes' own UrlBuilder builds, and links that
+ * don't name an ActionBean the ones Thymeleaf's standard dialect renders, as before links were
+ * cached and memoized.
+ */
+public class StripesLinkExpressionTest {
+
+	private static final Pattern HREF = Pattern.compile(" href=\"([^\"]*)\"");
+	private static final Pattern ANCHOR = Pattern.compile("<(?:a|span) id=\"([^\"]+)\"(?: href=\"([^\"]*)\")?>([^<]*)<");
+	static final String Q = "a&b c/\u00f1";
+	static final List<Integer> IDS = Arrays.asList(Integer.valueOf(1), Integer.valueOf(2), Integer.valueOf(3));
+
+	private StripesTestSupport support;
+
+
+	@Before
+	public void setUp() {
+		support = new StripesTestSupport();
+	}
+
+	@After
+	public void tearDown() {
+		support.close();
+	}
+
+
+	@Test
+	public void actionBeanLinksMatchStripesUrls() {
+		// Twice, the second time with the bindings and plans already cached
+		for (int i = 0; i < 2; i++) {
+			final Map<String,String> links = renderLinks(support);
+			assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ItemActionBean.class, false).addParameter("id", 5)), links.get("item"));
+			assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ItemActionBean.class, false).addParameter("id", 5).addParameter("q", Q)), links.get("itemQuery"));
+			assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ListActionBean.class, false)), links.get("list"));
+			assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ListActionBean.class, false).addParameter("q", Q).addParameter("page", 2)), links.get("listQuery"));
+			assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ListActionBean.class, false).addParameter("id", IDS)), links.get("listValues"));
+			assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ListActionBean.class, false).addParameter("q", Q)), links.get("listDynamic"));
+		}
+	}
+
+	@Test
+	public void nestedLinksAreLeftToThymeleafByDefault() {
+		// Only a patched LinkExpression resolves them, see StripesLinkExpressionPatchTest
+		final Map<String,String> links = renderLinks(support);
+		assertEquals(ListActionBean.class.getName() + "?n=1", links.get("nested"));
+		assertEquals(ListActionBean.class.getName() + "?n=2", links.get("attr"));
+	}
+
+	@Test
+	public void sameLinkWithOtherValuesIsNotReused() {
+		final Map<String,String> links = renderLinks(support);
+		for (final Integer id : IDS) {
+			assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ItemActionBean.class, false).addParameter("id", id)), links.get("each" + id));
+			assertEquals(stripesUrl(new UrlBuilder(Locale.ENGLISH, ItemActionBean.class, false).setEvent("edit").addParameter("id", id)), links.get("url" + id));
+		}
+	}
+
+	@Test
+	public void memoizedLinksFollowTheContextLocale() {
+		final StripesWebContext context = support.context(support.request(null));
+		context.setVariable("d", Double.valueOf(1.5));
+		final List<String> urls = new ArrayList<String>();
+		for (final Locale locale : new Locale[] { Locale.ENGLISH, Locale.GERMANY, Locale.ENGLISH }) {
+			context.setLocale(locale);
+			final Matcher matcher = HREF.matcher(support.process("locale-links", context));
+			assertTrue(matcher.find());
+			assertEquals(stripesUrl(new UrlBuilder(locale, ListActionBean.class, false).addParameter("d", Double.valueOf(1.5))), unescape(matcher.group(1)));
+			urls.add(matcher.group(1));
+		}
+		assertFalse(urls.get(0).equals(urls.get(1)));
+	}
+
+	@Test
+	public void linkHelperUrlsMatchStripesUrls() {
+		final StringBuilder urls = new StringBuilder("[");
+		for (final Integer id : IDS) {
+			if (urls.length() > 1) urls.append(", ");
+			urls.append(stripesUrl(new UrlBuilder(Locale.ENGLISH, ListActionBean.class, false).addParameter("page", id)));
+		}
+		assertEquals(urls.append(']').toString(), renderLinks(support).get("urls"));
+	}
+
+	@Test
+	public void linkHelperIsTheContextOne() {
+		// Not a new one for every evaluation
+		assertEquals("true", renderLinks(support).get("helper"));
+	}
+
+	@Test
+	public void otherLinksMatchTheStandardDialect() {
+		// As rendered by Thymeleaf's standard dialect, without the plugin
+		final List<String> expected = Arrays.asList(
+				"/app/css/site.css?v=2",
+				"about?x=a%26b+c%2F%C3%B1",
+				"http://example.org/a?y=1+2#frag",
+				"/other/p?z=1&w=3",
+				"/app/dynamic?x=a%26b+c%2F%C3%B1",
+				"/app/items?id=1&all=1&all=2&all=3",
+				"/app/items?id=2&all=1&all=2&all=3",
+				"/app/items?id=3&all=1&all=2&all=3");
+		final StripesWebContext context = support.context(support.request(null));
+		context.setVariable("q", Q);
+		context.setVariable("ids", IDS);
+		context.setVariable("path", "/dynamic");
+		// Twice, the second time with the static links cached
+		for (int i = 0; i < 2; i++) {
+			final List<String> links = new ArrayList<String>();
+			final Matcher matcher = HREF.matcher(support.process("standard-links", context));
+			while (matcher.find()) links.add(unescape(matcher.group(1)));
+			assertEquals(expected, links);
+		}
+	}
+
+
+
+	static Map<String,String> renderLinks(final StripesTestSupport support) {
+		final StripesWebContext context = support.context(support.request(null));
+		context.setVariable("q", Q);
+		context.setVariable("ids", IDS);
+		context.setVariable("listClass", ListActionBean.class.getName());
+		final String html = support.process("links", context);
+		final Map<String,String> links = new HashMap<String,String>();
+		final Matcher matcher = ANCHOR.matcher(html);
+		while (matcher.find()) {
+			links.put(matcher.group(1), unescape(matcher.group(2) != null ? matcher.group(2) : matcher.group(3)));
+		}
+		assertNotNull(html, links.get("item"));
+		return links;
+	}
+
+	static String stripesUrl(final UrlBuilder builder) {
+		return StripesTestSupport.CONTEXT_PATH + builder.toString();
+	}
+
+	private static String unescape(final String html) {
+		return html.replace("&amp;", "&");
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.messageresolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.text.MessageFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessagePatternTest {
+
+	// Messages formatted as MessageFormat would, with or without the fast path
+	private static final String[] MESSAGES = {
+		"plain text",
+		"",
+		"it''s",
+		"it's",
+		"'quoted' text",
+		"'{0}' is literal",
+		"a '{' brace",
+		"{0}",
+		"{0} and {1}",
+		"it''s {0}",
+		"{1} before {0}",
+		"{0,number,#.##}",
+		"{0,choice,0#none|1#one|1<many}",
+		"missing {2}",
+	};
+
+	private static final Object[] PARAMETERS = { Double.valueOf(3.14159), Integer.valueOf(2) };
+
+	private Locale defaultLocale;
+
+
+	@Before
+	public void setUp() {
+		// Number and date formats depend on it
+		defaultLocale = Locale.getDefault();
+		Locale.setDefault(Locale.ENGLISH);
+	}
+
+	@After
+	public void tearDown() {
+		Locale.setDefault(defaultLocale);
+	}
+
+
+	@Test
+	public void formatsAsMessageFormat() {
+		for (final String message : MESSAGES) {
+			final MessagePattern pattern = new MessagePattern(message);
+			assertEquals(message, MessageFormat.format(message, PARAMETERS), pattern.format(PARAMETERS));
+			// Once parsed, the format is reused
+			assertEquals(message, MessageFormat.format(message, PARAMETERS), pattern.format(PARAMETERS));
+		}
+	}
+
+	@Test
+	public void formatsDatesAsMessageFormat() {
+		final Object[] parameters = { new Date(0L) };
+		assertEquals(MessageFormat.format("{0,date,yyyy-MM-dd}", parameters), new MessagePattern("{0,date,yyyy-MM-dd}").format(parameters));
+	}
+
+	@Test
+	public void messagesWithoutParametersAreNotFormatted() {
+		for (final String message : MESSAGES) {
+			final MessagePattern pattern = new MessagePattern(message);
+			assertSame(message, pattern.format(null));
+			assertSame(message, pattern.format(new Object[0]));
+		}
+	}
+
+	@Test
+	public void quotesAreUnescapedEvenWithoutPlaceholders() {
+		assertEquals("it's", new MessagePattern("it''s").format(PARAMETERS));
+		assertEquals("quoted text", new MessagePattern("'quoted' text").format(PARAMETERS));
+	}
+
+	@Test
+	public void plainMessagesAreReturnedAsTheyAre() {
+		final String message = "plain text";
+		assertSame(message, new MessagePattern(message).format(PARAMETERS));
+	}
+
+	@Test
+	public void formatsAreNotSharedBetweenCalls() {
+		final MessagePattern pattern = new MessagePattern("{0}");
+		assertEquals("a", pattern.format(new Object[] { "a" }));
+		assertEquals("b", pattern.format(new Object[] { "b" }));
+	}
+
+}
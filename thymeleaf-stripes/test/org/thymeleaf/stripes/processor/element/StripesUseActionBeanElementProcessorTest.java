@@ -0,0 +1,174 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.processor.element;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.thymeleaf.stripes.StripesTestSupport;
+import org.thymeleaf.stripes.context.StripesWebContext;
+import org.thymeleaf.stripes.testbeans.CountingActionBean;
+
+/**
+ * Elements with the same bean, event and flags run once per request, whether they're run right
+ * away, concurrently (<tt>async</tt>) or when first read (<tt>lazy</tt>), unless they always
+ * execute their event. Async elements only run
+ * if processed, and those of the same bean share it as they would if run right away.
+ */
+public class StripesUseActionBeanElementProcessorTest {
+
+	private static final Pattern TEXT = Pattern.compile("<p id=\"([^\"]+)\">([^<]*)</p>");
+
+	private StripesTestSupport support;
+	private HttpServletRequest request;
+	private StripesWebContext context;
+
+
+	@Before
+	public void setUp() {
+		support = new StripesTestSupport();
+		request = support.request(Collections.singletonMap("q", new String[] { "v" }));
+		context = support.context(request);
+		CountingActionBean.LOADS.set(0);
+		CountingActionBean.REFRESHES.set(0);
+	}
+
+	@After
+	public void tearDown() {
+		support.close();
+	}
+
+
+	@Test
+	public void sameBeanAndEventRunOnce() {
+		final Map<String,String> texts = process("sync");
+		assertEquals(1, CountingActionBean.LOADS.get());
+		assertSame(variable("a"), variable("b"));
+		assertEquals("v", variable("a").getQ());
+		// Another event runs, on the bean already in the request
+		assertEquals(1, CountingActionBean.REFRESHES.get());
+		assertSame(variable("a"), variable("c"));
+		assertEquals("refreshed v #1", texts.get("c"));
+	}
+
+	@Test
+	public void elementsAlwaysExecutingTheirEventRunEveryTime() {
+		final Map<String,String> texts = process("always");
+		assertEquals(4, CountingActionBean.REFRESHES.get());
+		assertEquals("refreshed v #4", texts.get("d"));
+		assertSame(variable("a"), variable("d"));
+	}
+
+	@Test
+	public void asyncElementsRunOnceWithoutTouchingTheRequest() {
+		final Map<String,String> texts = process("async");
+		assertEquals(1, CountingActionBean.LOADS.get());
+		assertSame(variable("a"), variable("b"));
+		// The synchronous element with the same key reuses the async one's bean
+		assertSame(variable("a"), variable("c"));
+		assertEquals("loaded v #1", texts.get("a"));
+		assertFalse(Thread.currentThread().getName().equals(variable("a").getThread()));
+		assertEquals(Collections.emptyList(), support.getForeignRequestCalls());
+		// Attributes set by the bean are published to the request once it's done
+		assertEquals(variable("a").getThread(), request.getAttribute("loadedBy"));
+	}
+
+	@Test
+	public void asyncElementsNotProcessedDoNotRun() {
+		final Map<String,String> texts = process("async-unreached");
+		assertEquals("refreshed v #1", texts.get("a"));
+		assertEquals(0, CountingActionBean.LOADS.get());
+		assertNull(context.getVariables().get("b"));
+		assertNull(context.getVariables().get("c"));
+	}
+
+	@Test
+	public void asyncEventsOfTheSameBeanRunOnOneBean() {
+		final Map<String,String> texts = process("async-events");
+		assertEquals(1, CountingActionBean.LOADS.get());
+		assertEquals(1, CountingActionBean.REFRESHES.get());
+		assertSame(variable("a"), variable("b"));
+		assertEquals("refreshed v #1", texts.get("b"));
+		assertFalse(Thread.currentThread().getName().equals(variable("b").getThread()));
+		assertEquals(Collections.emptyList(), support.getForeignRequestCalls());
+	}
+
+	@Test
+	public void lazyBeanReusesBeanAlreadyRun() {
+		final Map<String,String> texts = process("lazy-after");
+		assertEquals(1, CountingActionBean.LOADS.get());
+		assertEquals("loaded v #1", texts.get("l"));
+	}
+
+	@Test
+	public void beanRunLaterReusesLazyBeanAlreadyRead() {
+		final Map<String,String> texts = process("lazy-before");
+		assertEquals(1, CountingActionBean.LOADS.get());
+		assertEquals("loaded v #1", texts.get("l"));
+		assertEquals("loaded v #1", texts.get("a"));
+	}
+
+	@Test
+	public void lazyBeanReusesAsyncBean() {
+		final Map<String,String> texts = process("lazy-async");
+		assertEquals(1, CountingActionBean.LOADS.get());
+		assertEquals(texts.get("a"), texts.get("l"));
+		assertEquals(Collections.emptyList(), support.getForeignRequestCalls());
+	}
+
+	@Test
+	public void lazyBeanNotReadDoesNotRun() {
+		process("lazy-unread");
+		assertEquals(0, CountingActionBean.LOADS.get());
+	}
+
+
+
+	private Map<String,String> process(final String template) {
+		final String html = support.process("use-action-bean/" + template, context);
+		final Map<String,String> texts = new HashMap<String,String>();
+		final Matcher matcher = TEXT.matcher(html);
+		while (matcher.find()) texts.put(matcher.group(1), matcher.group(2));
+		return texts;
+	}
+
+	private CountingActionBean variable(final String name) {
+		final Object bean = context.getVariables().get(name);
+		assertNotNull(name, bean);
+		assertTrue(name + " is a " + bean.getClass(), bean instanceof CountingActionBean);
+		return (CountingActionBean) bean;
+	}
+
+}
@@ -0,0 +1,65 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.testbeans;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.DefaultHandler;
+import net.sourceforge.stripes.action.Resolution;
+
+/**
+ * Counts how many times its events run, and records where the last one ran.
+ */
+public class CountingActionBean implements ActionBean {
+
+	public static final AtomicInteger LOADS = new AtomicInteger();
+	public static final AtomicInteger REFRESHES = new AtomicInteger();
+
+	private ActionBeanContext context;
+	private String q;
+	private String value;
+	private String thread;
+
+	public ActionBeanContext getContext() { return context; }
+	public void setContext(ActionBeanContext context) { this.context = context; }
+
+	public String getQ() { return q; }
+	public void setQ(String q) { this.q = q; }
+
+	public String getValue() { return value; }
+	public String getThread() { return thread; }
+
+	@DefaultHandler
+	public Resolution load() {
+		value = "loaded " + q + " #" + LOADS.incrementAndGet();
+		thread = Thread.currentThread().getName();
+		context.getRequest().setAttribute("loadedBy", thread);
+		return null;
+	}
+
+	public Resolution refresh() {
+		value = "refreshed " + q + " #" + REFRESHES.incrementAndGet();
+		thread = Thread.currentThread().getName();
+		return null;
+	}
+
+}
@@ -0,0 +1,45 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.testbeans;
+
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+import net.sourceforge.stripes.action.DefaultHandler;
+import net.sourceforge.stripes.action.Resolution;
+import net.sourceforge.stripes.action.UrlBinding;
+
+@UrlBinding("/item/{id}/{$event}.html")
+public class ItemActionBean implements ActionBean {
+
+	private ActionBeanContext context;
+	private Integer id;
+
+	public ActionBeanContext getContext() { return context; }
+	public void setContext(ActionBeanContext context) { this.context = context; }
+
+	public Integer getId() { return id; }
+	public void setId(Integer id) { this.id = id; }
+
+	@DefaultHandler
+	public Resolution view() { return null; }
+
+	public Resolution edit() { return null; }
+
+}
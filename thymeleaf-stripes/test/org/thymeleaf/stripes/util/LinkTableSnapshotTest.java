@@ -0,0 +1,160 @@
+/*
+ * =============================================================================
+ * 
+ *   Copyright (c) 2011-2013, The THYMELEAF team (http://www.thymeleaf.org)
+ * 
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ * 
+ * =============================================================================
+ */
+package org.thymeleaf.stripes.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import net.sourceforge.stripes.action.ActionBean;
+import net.sourceforge.stripes.action.ActionBeanContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LinkTableSnapshotTest {
+
+	public static class ItemActionBean implements ActionBean {
+		private ActionBeanContext context;
+		public ActionBeanContext getContext() { return context; }
+		public void setContext(ActionBeanContext context) { this.context = context; }
+	}
+
+	private static final String FINGERPRINT = "0123456789abcdef";
+
+	private File file;
+	private Map<String,Class<? extends ActionBean>> beanClasses;
+
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("links", ".snapshot");
+		beanClasses = new HashMap<String,Class<? extends ActionBean>>();
+		beanClasses.put(ItemActionBean.class.getName(), ItemActionBean.class);
+
+		final Set<String> encrypted = new HashSet<String>(Arrays.asList("secret"));
+		final Map<String,String> bindings = new HashMap<String,String>();
+		bindings.put(ItemActionBean.class.getName(), "/item/{id}/{$event}");
+		final Map<String,UrlBindingPlan> plans = new HashMap<String,UrlBindingPlan>();
+		plans.put("/plain", UrlBindingPlan.PASSTHROUGH);
+		plans.put("/item/{id}/{$event}", new UrlBindingPlan("/item", new String[] { "/", "/" }, new String[] { "id", "$event" },
+				new String[] { null, "view" }, new boolean[] { false, false }, null, ".html", encrypted));
+		final Map<Class<? extends ActionBean>,Set<String>> encryptedProperties = new HashMap<Class<? extends ActionBean>,Set<String>>();
+		encryptedProperties.put(ItemActionBean.class, encrypted);
+		LinkTableSnapshot.write(file, FINGERPRINT, bindings, plans, encryptedProperties);
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+
+	@Test
+	public void roundTrip() throws IOException {
+		final LinkTableSnapshot snapshot = LinkTableSnapshot.read(file, FINGERPRINT, beanClasses);
+		assertEquals("/item/{id}/{$event}", snapshot.bindings.get(ItemActionBean.class.getName()));
+		assertSame(UrlBindingPlan.PASSTHROUGH, snapshot.plans.get("/plain"));
+		final UrlBindingPlan plan = snapshot.plans.get("/item/{id}/{$event}");
+		assertEquals("/item", plan.base);
+		assertArrayEquals(new String[] { "id", "$event" }, plan.names);
+		assertArrayEquals(new String[] { null, "view" }, plan.defaultValues);
+		assertEquals(".html", plan.suffix);
+		assertEquals(Collections.singleton("secret"), plan.encryptedProperties);
+		assertEquals(Collections.singleton("secret"), snapshot.encryptedProperties.get(ItemActionBean.class));
+	}
+
+	@Test
+	public void staleFingerprintIsIgnored() throws IOException {
+		assertNull(LinkTableSnapshot.read(file, "fedcba9876543210", beanClasses));
+	}
+
+	@Test
+	public void missingFileIsIgnored() throws IOException {
+		assertNull(LinkTableSnapshot.read(new File(file.getPath() + ".missing"), FINGERPRINT, beanClasses));
+	}
+
+	@Test
+	public void truncatedSnapshotsOnlyFailWithIOException() throws IOException {
+		final byte[] content = readAll(file);
+		for (int length = 0; length < content.length; length++) {
+			writeAll(file, Arrays.copyOf(content, length));
+			assertReadFailsCleanly("truncated to " + length);
+		}
+	}
+
+	@Test
+	public void corruptSnapshotsOnlyFailWithIOException() throws IOException {
+		final byte[] content = readAll(file);
+		for (int i = 0; i < content.length; i++) {
+			for (final int flip : new int[] { 0x01, 0x80, 0xFF }) {
+				final byte[] corrupt = content.clone();
+				corrupt[i] ^= flip;
+				writeAll(file, corrupt);
+				assertReadFailsCleanly("byte " + i + " xor " + flip);
+			}
+		}
+	}
+
+	private void assertReadFailsCleanly(final String corruption) {
+		try {
+			// Corruption the format can't detect (e.g. in a string) may still read
+			LinkTableSnapshot.read(file, FINGERPRINT, beanClasses);
+		} catch (final IOException e) {
+			// Expected, the registry rebuilds the table
+		} catch (final RuntimeException e) {
+			throw new AssertionError("Snapshot " + corruption + " failed with " + e);
+		}
+	}
+
+	private static byte[] readAll(final File file) throws IOException {
+		final RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			final byte[] content = new byte[(int) in.length()];
+			in.readFully(content);
+			return content;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeAll(final File file, final byte[] content) throws IOException {
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+
+}